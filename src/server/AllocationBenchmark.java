@@ -0,0 +1,110 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import server.model.npc.Npc;
+import server.model.player.Player;
+import server.model.player.PlayerHandler;
+import server.net.util.ISAACCipher;
+import server.net.util.StreamBuffer;
+import server.util.Misc;
+
+/**
+ * Measures the bytes the game thread allocates per cycle with a crowd of
+ * bots, as the server builds its update packets in per-thread scratch
+ * buffers. For comparison the same cycles are run again while also
+ * allocating the buffers the player and NPC updates used to create for
+ * every player every cycle (10240 and 10000 bytes for the player update,
+ * 2048 and 1024 bytes for the NPC update). Needs a JVM that can measure the
+ * allocations of a thread.
+ */
+public class AllocationBenchmark {
+
+	/** The sizes of the buffers the updates used to allocate per player. */
+	private static final int[] OLD_BUFFER_SIZES = { 10240, 10000, 2048, 1024 };
+
+	/** The amount of cycles run before measuring, to warm up the JIT. */
+	private static final int WARMUP_CYCLES = 50;
+
+	/** Keeps the last buffer alive, so the JIT can not drop the allocations. */
+	private static StreamBuffer.OutBuffer sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 2) {
+			System.err.println("Usage: AllocationBenchmark [bots] [cycles]");
+			return;
+		}
+		int bots = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int cycles = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			System.err.println("This JVM can not measure the allocations of a thread.");
+			return;
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+
+		Misc.sortEquipmentSlotDefinitions();
+		Misc.loadStackableItems("./data/stackable.dat");
+		Server server = new Server("headless", 0, 600);
+		Server.setSingleton(server);
+		PlayerHandler.register(new Npc(1));
+		PlayerHandler.getProfiler().setPrinting(false);
+		for (int i = 0; i < bots; i++) {
+			Player player = new Player(null);
+			player.setUsername("alloc" + i);
+			player.setPassword("alloc");
+			player.setEncryptor(new ISAACCipher(new int[4]));
+			player.login();
+		}
+
+		for (int i = 0; i < WARMUP_CYCLES; i++) {
+			server.cycle();
+		}
+		long start = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < cycles; i++) {
+			server.cycle();
+		}
+		long scratch = (allocations.getThreadAllocatedBytes(thread) - start) / cycles;
+
+		start = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < cycles; i++) {
+			server.cycle();
+			for (int j = 0; j < bots; j++) {
+				for (int size : OLD_BUFFER_SIZES) {
+					sink = StreamBuffer.newOutBuffer(size);
+				}
+			}
+		}
+		long fresh = (allocations.getThreadAllocatedBytes(thread) - start) / cycles;
+
+		System.out.println(String.format("%d bots over %d cycles, bytes allocated by the game thread per cycle:", bots, cycles));
+		System.out.println(String.format("  fresh buffers per player  %8.2f MB (%6.2f KB per bot)", fresh / 1048576.0, fresh / 1024.0 / bots));
+		System.out.println(String.format("  scratch buffers           %8.2f MB (%6.2f KB per bot)", scratch / 1048576.0, scratch / 1024.0 / bots));
+	}
+
+}
@@ -0,0 +1,166 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import server.net.util.StreamBuffer;
+
+/**
+ * Measures OutBuffer.writeBits against the byte at a time bit writer it
+ * replaced, which read, masked and wrote back every byte a value touched.
+ * Every packet is a series of writes of 1 to 11 bits, the mix the movement
+ * part of an update packet uses. Both writers must produce the same bytes.
+ */
+public class BitWriterBenchmark {
+
+	/** The amount of rounds run before measuring, to warm up the JIT. */
+	private static final int WARMUP_ROUNDS = 200;
+
+	/** Keeps the results alive, so the JIT can not drop the work. */
+	private static long sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length > 3) {
+			System.err.println("Usage: BitWriterBenchmark [writes] [rounds] [seed]");
+			return;
+		}
+		int writes = args.length > 0 ? Integer.parseInt(args[0]) : 2040;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		Random random = new Random(args.length > 2 ? Long.parseLong(args[2]) : 1);
+
+		int[] amounts = new int[writes];
+		int[] values = new int[writes];
+		int bits = 0;
+		for (int i = 0; i < writes; i++) {
+			amounts[i] = 1 + random.nextInt(11);
+			values[i] = random.nextInt();
+			bits += amounts[i];
+		}
+		int bytes = (bits + 7) / 8;
+
+		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(bytes);
+		ChannelBuffer old = ChannelBuffers.buffer(bytes + 1);
+		writeAccumulated(out, amounts, values);
+		writeByteAtATime(old, amounts, values);
+		if (!out.getBuffer().equals(old)) {
+			System.err.println("The writers do not produce the same bytes!");
+			return;
+		}
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			writeByteAtATime(old, amounts, values);
+			writeAccumulated(out, amounts, values);
+		}
+		long[] oldTimes = new long[rounds];
+		long[] newTimes = new long[rounds];
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			writeByteAtATime(old, amounts, values);
+			oldTimes[i] = System.nanoTime() - start;
+			start = System.nanoTime();
+			writeAccumulated(out, amounts, values);
+			newTimes[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(oldTimes);
+		Arrays.sort(newTimes);
+		System.out.println(String.format("%d writes of 1-11 bits per packet over %d rounds (median ns/write, median us/packet):", writes, rounds));
+		System.out.println(String.format("  byte at a time  %6.2f %8.2f", oldTimes[rounds / 2] / (double) writes, oldTimes[rounds / 2] / 1000.0));
+		System.out.println(String.format("  accumulated     %6.2f %8.2f", newTimes[rounds / 2] / (double) writes, newTimes[rounds / 2] / 1000.0));
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Writes a packet of bits with OutBuffer.writeBits.
+	 *
+	 * @param out
+	 *            the buffer
+	 * @param amounts
+	 *            the amount of bits of every write
+	 * @param values
+	 *            the values
+	 */
+	private static void writeAccumulated(StreamBuffer.OutBuffer out, int[] amounts, int[] values) {
+		out.reset();
+		out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+		for (int i = 0; i < amounts.length; i++) {
+			out.writeBits(amounts[i], values[i]);
+		}
+		out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
+		sink += out.getBuffer().writerIndex();
+	}
+
+	/**
+	 * Writes a packet of bits a byte at a time, as OutBuffer.writeBits used
+	 * to.
+	 *
+	 * @param buffer
+	 *            the buffer, with a spare byte at the end
+	 * @param amounts
+	 *            the amount of bits of every write
+	 * @param values
+	 *            the values
+	 */
+	private static void writeByteAtATime(ChannelBuffer buffer, int[] amounts, int[] values) {
+		int bitPosition = 0;
+		for (int i = 0; i < amounts.length; i++) {
+			int amount = amounts[i];
+			int value = values[i];
+			int bytePos = bitPosition >> 3;
+			int bitOffset = 8 - (bitPosition & 7);
+			bitPosition += amount;
+			for (; amount > bitOffset; bitOffset = 8) {
+				byte tmp = buffer.getByte(bytePos);
+				tmp &= ~StreamBuffer.BIT_MASK[bitOffset];
+				tmp |= (value >> (amount - bitOffset)) & StreamBuffer.BIT_MASK[bitOffset];
+				buffer.setByte(bytePos++, tmp);
+				amount -= bitOffset;
+			}
+			if (amount == bitOffset) {
+				byte tmp = buffer.getByte(bytePos);
+				tmp &= ~StreamBuffer.BIT_MASK[bitOffset];
+				tmp |= value & StreamBuffer.BIT_MASK[bitOffset];
+				buffer.setByte(bytePos, tmp);
+			} else {
+				byte tmp = buffer.getByte(bytePos);
+				tmp &= ~(StreamBuffer.BIT_MASK[amount] << (bitOffset - amount));
+				tmp |= (value & StreamBuffer.BIT_MASK[amount]) << (bitOffset - amount);
+				buffer.setByte(bytePos, tmp);
+			}
+		}
+		// The bits of the last byte that were not written are zero, as
+		// reset() used to make sure.
+		int bytes = (bitPosition + 7) >> 3;
+		if ((bitPosition & 7) != 0) {
+			buffer.setByte(bytes - 1, buffer.getByte(bytes - 1) & ~StreamBuffer.BIT_MASK[8 - (bitPosition & 7)]);
+		}
+		buffer.writerIndex(bytes);
+		sink += bytes;
+	}
+
+}
@@ -0,0 +1,176 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import server.net.util.ISAACCipher;
+import server.net.util.StreamBuffer;
+
+/**
+ * Measures finishing an update packet whose block was built in a buffer of
+ * its own. The old way appended the block to the packet a byte at a time and
+ * then copied the whole packet out; finishVariableShortPacket() copies the
+ * packet and the block into one buffer of the exact size instead. Both must
+ * produce the same bytes.
+ */
+public class BlockCopyBenchmark {
+
+	/** The amount of packets finished per round. */
+	private static final int PACKETS = 1000;
+
+	/** The amount of rounds run before measuring, to warm up the JIT. */
+	private static final int WARMUP_ROUNDS = 50;
+
+	/** Keeps the results alive, so the JIT can not drop the work. */
+	private static long sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length > 2) {
+			System.err.println("Usage: BlockCopyBenchmark [block bytes] [rounds]");
+			return;
+		}
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		StreamBuffer.OutBuffer block = StreamBuffer.newOutBuffer(size);
+		for (int i = 0; i < size; i++) {
+			block.writeByte(i);
+		}
+		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(size + 64);
+		ISAACCipher cipher = new ISAACCipher(new int[4]);
+		if (!appendByteAtATime(out, block).equals(finishOnce(out, block))) {
+			System.err.println("Both ways must produce the same bytes!");
+			return;
+		}
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			run(out, block, cipher, false);
+			run(out, block, cipher, true);
+		}
+		long[] oldTimes = new long[rounds];
+		long[] newTimes = new long[rounds];
+		for (int i = 0; i < rounds; i++) {
+			oldTimes[i] = run(out, block, cipher, false);
+			newTimes[i] = run(out, block, cipher, true);
+		}
+		Arrays.sort(oldTimes);
+		Arrays.sort(newTimes);
+		System.out.println(String.format("Update packets with a %d byte block over %d rounds (median us/packet):", size, rounds));
+		System.out.println(String.format("  appended a byte at a time, copied  %8.2f", oldTimes[rounds / 2] / 1000.0 / PACKETS));
+		System.out.println(String.format("  finishVariableShortPacket          %8.2f", newTimes[rounds / 2] / 1000.0 / PACKETS));
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Finishes a round of packets.
+	 *
+	 * @param out
+	 *            the packet buffer
+	 * @param block
+	 *            the block
+	 * @param cipher
+	 *            the encryptor
+	 * @param once
+	 *            whether or not to use finishVariableShortPacket()
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long run(StreamBuffer.OutBuffer out, StreamBuffer.OutBuffer block, ISAACCipher cipher, boolean once) {
+		long start = System.nanoTime();
+		for (int i = 0; i < PACKETS; i++) {
+			out.reset();
+			out.writeVariableShortPacketHeader(cipher, 81);
+			out.writeShort(i);
+			ChannelBuffer packet = once ? finish(out, block) : append(out, block);
+			sink += packet.capacity();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Writes a packet with appendByteAtATime(), for comparing the bytes.
+	 *
+	 * @param out
+	 *            the packet buffer
+	 * @param block
+	 *            the block
+	 * @return the packet
+	 */
+	private static ChannelBuffer appendByteAtATime(StreamBuffer.OutBuffer out, StreamBuffer.OutBuffer block) {
+		out.reset();
+		out.writeVariableShortPacketHeader(new ISAACCipher(new int[4]), 81);
+		return append(out, block);
+	}
+
+	/**
+	 * Writes a packet with finish(), for comparing the bytes.
+	 *
+	 * @param out
+	 *            the packet buffer
+	 * @param block
+	 *            the block
+	 * @return the packet
+	 */
+	private static ChannelBuffer finishOnce(StreamBuffer.OutBuffer out, StreamBuffer.OutBuffer block) {
+		out.reset();
+		out.writeVariableShortPacketHeader(new ISAACCipher(new int[4]), 81);
+		return finish(out, block);
+	}
+
+	/**
+	 * Appends the block a byte at a time, then copies the packet into a
+	 * buffer of the exact size, as the updates used to.
+	 *
+	 * @param out
+	 *            the packet buffer
+	 * @param block
+	 *            the block
+	 * @return the packet
+	 */
+	private static ChannelBuffer append(StreamBuffer.OutBuffer out, StreamBuffer.OutBuffer block) {
+		ChannelBuffer from = block.getBuffer();
+		for (int i = 0; i < from.writerIndex(); i++) {
+			out.writeByte(from.getByte(i));
+		}
+		out.finishVariableShortPacketHeader();
+		return ChannelBuffers.copiedBuffer(out.getBuffer());
+	}
+
+	/**
+	 * Finishes the packet with finishVariableShortPacket().
+	 *
+	 * @param out
+	 *            the packet buffer
+	 * @param block
+	 *            the block
+	 * @return the packet
+	 */
+	private static ChannelBuffer finish(StreamBuffer.OutBuffer out, StreamBuffer.OutBuffer block) {
+		return out.finishVariableShortPacket(block);
+	}
+
+}
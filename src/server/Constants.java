@@ -4,4 +4,128 @@ public class Constants {
 	
 	public static final byte WORLD = 10;
 
+	/**
+	 * The amount of worker threads used to build the player and NPC update
+	 * packets. A value of 0 builds every update packet on the game thread.
+	 */
+	public static final int UPDATE_THREADS = 0;
+
+	/**
+	 * What the tick scheduler does when a cycle takes longer than the cycle
+	 * rate.
+	 */
+	public static final TickScheduler.OverrunPolicy TICK_OVERRUN_POLICY = TickScheduler.OverrunPolicy.CATCH_UP;
+
+	/**
+	 * The amount of cycles between two tick profile summaries (100 cycles is
+	 * one minute at the default cycle rate).
+	 */
+	public static final int PROFILER_INTERVAL = 100;
+
+	/**
+	 * Whether or not the slot of an unregistered player or NPC stays unused
+	 * until the end of the cycle, so that clients never see a slot reused
+	 * within one cycle.
+	 */
+	public static final boolean DELAYED_SLOT_REUSE = true;
+
+	/** The amount of threads that load the saved games of logging in players. */
+	public static final int LOGIN_THREADS = 2;
+
+	/**
+	 * The maximum amount of logins waiting for a login thread, further logins
+	 * are rejected.
+	 */
+	public static final int LOGIN_QUEUE_CAPACITY = 512;
+
+	/** The maximum amount of logins finished by the game thread per cycle. */
+	public static final int LOGINS_PER_CYCLE = 50;
+
+	/**
+	 * The maximum amount of players checked for changes and saved per cycle.
+	 * At 2000 players, 20 per cycle saves everyone every 100 cycles.
+	 */
+	public static final int AUTOSAVE_PER_CYCLE = 20;
+
+	/**
+	 * The amount of bytes waiting to be written to a client above which it is
+	 * congested. Congested clients are not sent non-essential packets, and
+	 * get no new local players or NPCs, until they drain below the low water
+	 * mark.
+	 */
+	public static final int OUTBOUND_HIGH_WATER_MARK = 64 * 1024;
+
+	/** The amount of bytes a congested client must drain below. */
+	public static final int OUTBOUND_LOW_WATER_MARK = 32 * 1024;
+
+	/**
+	 * The amount of bytes waiting to be written to a client above which it is
+	 * disconnected, once it has stayed above it for OUTBOUND_BACKLOG_CYCLES
+	 * cycles in a row.
+	 */
+	public static final int OUTBOUND_BACKLOG_LIMIT = 512 * 1024;
+
+	/** See OUTBOUND_BACKLOG_LIMIT. */
+	public static final int OUTBOUND_BACKLOG_CYCLES = 10;
+
+	/**
+	 * Whether or not the packets that have a message type are decoded into
+	 * messages on the network threads, leaving only the handling of the
+	 * messages to the game thread.
+	 */
+	public static final boolean NETWORK_THREAD_DECODING = false;
+
+	/**
+	 * The maximum amount of packets waiting to be handled per client. A
+	 * client that sends more is disconnected by the network thread.
+	 */
+	public static final int INBOUND_QUEUE_CAPACITY = 256;
+
+	/**
+	 * The maximum amount of packets handled per client per cycle, the rest
+	 * wait for the next cycle.
+	 */
+	public static final int PACKETS_PER_CYCLE = 20;
+
+	/** The maximum amount of chat packets handled per client per cycle. */
+	public static final int CHAT_PACKETS_PER_CYCLE = 2;
+
+	/** The maximum amount of button and item packets handled per client per cycle. */
+	public static final int INTERFACE_PACKETS_PER_CYCLE = 10;
+
+	/**
+	 * The amount of cycles in a row a client may have more than
+	 * PACKETS_PER_CYCLE packets waiting after its packets were handled.
+	 * After that it is flooding, and is disconnected by the network thread
+	 * when it sends another packet, unless its queue drains first.
+	 */
+	public static final int INBOUND_FLOOD_CYCLES = 5;
+
+	/** The amount of threads accepting connections. */
+	public static final int NETWORK_BOSS_THREADS = 1;
+
+	/**
+	 * The amount of threads reading and writing the connections. Connections
+	 * are handed to these threads in turn and stay on their thread until they
+	 * are closed; Netty does not say which connection a thread is picked for,
+	 * so threads can not be set aside for a group of connections.
+	 */
+	public static final int NETWORK_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** The amount of connections waiting to be accepted. */
+	public static final int NETWORK_ACCEPT_BACKLOG = 128;
+
+	/**
+	 * Whether or not Nagle's algorithm is disabled, so packets are sent
+	 * without waiting for more data. The packets of a cycle are already
+	 * written at once.
+	 */
+	public static final boolean NETWORK_TCP_NO_DELAY = true;
+
+	/** The socket send buffer size in bytes, or 0 for the system default. */
+	public static final int NETWORK_SEND_BUFFER_SIZE = 0;
+
+	/** The socket receive buffer size in bytes, or 0 for the system default. */
+	public static final int NETWORK_RECEIVE_BUFFER_SIZE = 0;
+
 }
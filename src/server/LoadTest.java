@@ -0,0 +1,191 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import server.model.Position;
+import server.model.npc.Npc;
+import server.model.player.Client;
+import server.model.player.Player;
+import server.model.player.PlayerHandler;
+import server.net.ReceivedPacket;
+import server.net.packet.PacketDispatcher;
+import server.net.util.ISAACCipher;
+import server.net.util.StreamBuffer;
+import server.util.Misc;
+import server.util.TickProfiler;
+
+/**
+ * Runs the server without networking, with a swarm of bots that walk around,
+ * chat and equip items by queueing the same packets a real client sends. The
+ * bots have no channel, so nothing is written to the network and they are
+ * never saved, but every packet is handled and every update packet is built
+ * as usual. Cycles run back to back, and the cycle times are reported at the
+ * end (and per phase by the tick profiler along the way).
+ */
+public class LoadTest {
+
+	/** The items every bot starts with. */
+	private static final int[] ITEMS = { 1019, 1173, 1155, 1103, 1069, 89, 1277 };
+
+	/** The maximum distance a bot walks away from where it logged in. */
+	private static final int WANDER_RADIUS = 10;
+
+	/** The chance per cycle that a bot walks. */
+	private static final double WALK_CHANCE = 1 / 8.0;
+
+	/** The chance per cycle that a bot chats. */
+	private static final double CHAT_CHANCE = 1 / 20.0;
+
+	/** The chance per cycle that a bot equips or unequips an item. */
+	private static final double EQUIP_CHANCE = 1 / 30.0;
+
+	/** The message the bots say, in the packed format the client sends. */
+	private static final byte[] CHAT_TEXT = { 2, 36, 67, 16, 32, 87, 115, 64 };
+
+	/**
+	 * The main method.
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: LoadTest <bots> <cycles> [seed]");
+			return;
+		}
+		int bots = Integer.parseInt(args[0]);
+		int cycles = Integer.parseInt(args[1]);
+		Random random = args.length == 3 ? new Random(Long.parseLong(args[2])) : new Random();
+
+		Misc.sortEquipmentSlotDefinitions();
+		Misc.loadStackableItems("./data/stackable.dat");
+
+		Server server = new Server("headless", 0, 600);
+		Server.setSingleton(server);
+		PlayerHandler.register(new Npc(1));
+
+		Player[] players = new Player[bots];
+		Position[] homes = new Position[bots];
+		for (int i = 0; i < bots; i++) {
+			Player player = new Player(null);
+			player.setUsername("b0t" + i);
+			player.setPassword("b0t");
+			player.setEncryptor(new ISAACCipher(new int[4]));
+			player.login();
+			for (int item : ITEMS) {
+				player.addInventoryItem(item, 1);
+			}
+			players[i] = player;
+			homes[i] = new Position(player.getPosition().getX(), player.getPosition().getY(), player.getPosition().getZ());
+		}
+		System.out.println("Logged in " + PlayerHandler.playerAmount() + " bots, running " + cycles + " cycles...");
+
+		long[] times = new long[cycles];
+		for (int cycle = 0; cycle < cycles; cycle++) {
+			for (int i = 0; i < bots; i++) {
+				act(players[i], homes[i], random);
+			}
+			long start = System.nanoTime();
+			server.cycle();
+			times[cycle] = System.nanoTime() - start;
+		}
+
+		TickProfiler profiler = PlayerHandler.getProfiler();
+		if (profiler.getCycles() > 0) {
+			// Otherwise both were printed at the end of the last interval.
+			System.out.println(profiler.summary());
+			String packets = PacketDispatcher.summary(10);
+			if (packets != null) {
+				System.out.println(packets);
+			}
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("Cycle times of %d bots over %d cycles (ms): p50 %.2f, p90 %.2f, p99 %.2f, max %.2f", bots, cycles, millis(times, 50), millis(times, 90), millis(times, 99), millis(times, 100)));
+		if (Client.getFlushes() > 0) {
+			System.out.println("Flushed " + Client.getPacketsFlushed() + " packets in " + Client.getFlushes() + " writes, " + (Client.getPacketsFlushed() - Client.getFlushes()) + " writes saved.");
+		}
+	}
+
+	/**
+	 * Lets a bot do something, by queueing a packet.
+	 * 
+	 * @param player
+	 *            the bot
+	 * @param home
+	 *            where the bot logged in
+	 * @param random
+	 *            the random number generator
+	 */
+	private static void act(Player player, Position home, Random random) {
+		double roll = random.nextDouble();
+		if (roll < WALK_CHANCE) {
+			int x = home.getX() + random.nextInt(WANDER_RADIUS * 2 + 1) - WANDER_RADIUS;
+			int y = home.getY() + random.nextInt(WANDER_RADIUS * 2 + 1) - WANDER_RADIUS;
+			StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(5);
+			out.writeShort(x, StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
+			out.writeShort(y, StreamBuffer.ByteOrder.LITTLE);
+			out.writeByte(random.nextBoolean() ? 1 : 0, StreamBuffer.ValueType.C);
+			player.queuePacket(new ReceivedPacket(164, 5, out.getBuffer()));
+		} else if (roll < WALK_CHANCE + CHAT_CHANCE) {
+			StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(2 + CHAT_TEXT.length);
+			out.writeByte(0, StreamBuffer.ValueType.S);
+			out.writeByte(random.nextInt(12), StreamBuffer.ValueType.S);
+			for (int i = CHAT_TEXT.length - 1; i >= 0; i--) {
+				out.writeByte(CHAT_TEXT[i], StreamBuffer.ValueType.A);
+			}
+			player.queuePacket(new ReceivedPacket(4, 2 + CHAT_TEXT.length, out.getBuffer()));
+		} else if (roll < WALK_CHANCE + CHAT_CHANCE + EQUIP_CHANCE) {
+			int slot = random.nextInt(player.getInventory().length);
+			if (player.getInventory()[slot] != -1) {
+				StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(6);
+				out.writeShort(player.getInventory()[slot]);
+				out.writeShort(slot, StreamBuffer.ValueType.A);
+				out.writeShort(3214);
+				player.queuePacket(new ReceivedPacket(41, 6, out.getBuffer()));
+				return;
+			}
+			slot = random.nextInt(player.getEquipment().length);
+			if (player.getEquipment()[slot] != -1) {
+				StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(6);
+				out.writeShort(1688, StreamBuffer.ValueType.A);
+				out.writeShort(slot, StreamBuffer.ValueType.A);
+				out.writeShort(player.getEquipment()[slot], StreamBuffer.ValueType.A);
+				player.queuePacket(new ReceivedPacket(145, 6, out.getBuffer()));
+			}
+		}
+	}
+
+	/**
+	 * Gets a percentile of the sorted cycle times.
+	 * 
+	 * @param times
+	 *            the sorted cycle times, in nanoseconds
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the cycle time, in milliseconds
+	 */
+	private static double millis(long[] times, int percentile) {
+		if (times.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * times.length) - 1;
+		return times[Math.max(0, Math.min(times.length - 1, index))] / 1000000.0;
+	}
+
+}
@@ -25,8 +25,10 @@ import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
 
 import server.model.npc.Npc;
 import server.model.player.PlayerHandler;
+import server.model.player.storage.SaveLoad;
 import server.net.PipelineFactory;
 import server.util.Misc;
+import server.util.TickProfiler;
 
 /**
  * The main core of RuneSource.
@@ -41,7 +43,8 @@ public class Server implements Runnable {
 	private final int cycleRate;
 
 	private InetSocketAddress address;
-	private Misc.Stopwatch cycleTimer;
+	private TickScheduler tickScheduler;
+	private final TaskScheduler taskScheduler = new TaskScheduler();
 
 	/**
 	 * Creates a new Server.
@@ -53,7 +56,7 @@ public class Server implements Runnable {
 	 * @param cycleRate
 	 *            the cycle rate
 	 */
-	private Server(String host, int port, int cycleRate) {
+	Server(String host, int port, int cycleRate) {
 		this.host = host;
 		this.port = port;
 		this.cycleRate = cycleRate;
@@ -91,6 +94,18 @@ public class Server implements Runnable {
 			Misc.sortEquipmentSlotDefinitions();
 			Misc.loadStackableItems("./data/stackable.dat");
 
+			// Write any queued saves before the JVM exits.
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						SaveLoad.shutdown();
+					} catch (InterruptedException ex) {
+						ex.printStackTrace();
+					}
+				}
+			});
+
 			// Start up and get a'rollin!
 			startup();
 			System.out.println("Online!");
@@ -110,32 +125,37 @@ public class Server implements Runnable {
 	 */
 	private void startup() throws IOException {
 		// Initialize netty and begin listening for new clients
-		ServerBootstrap serverBootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+		ServerBootstrap serverBootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(Executors.newCachedThreadPool(), Constants.NETWORK_BOSS_THREADS, Executors.newCachedThreadPool(), Constants.NETWORK_WORKER_THREADS));
 		serverBootstrap.setPipelineFactory(new PipelineFactory());
+		serverBootstrap.setOption("child.writeBufferHighWaterMark", Constants.OUTBOUND_HIGH_WATER_MARK);
+		serverBootstrap.setOption("child.writeBufferLowWaterMark", Constants.OUTBOUND_LOW_WATER_MARK);
+		serverBootstrap.setOption("backlog", Constants.NETWORK_ACCEPT_BACKLOG);
+		serverBootstrap.setOption("child.tcpNoDelay", Constants.NETWORK_TCP_NO_DELAY);
+		if (Constants.NETWORK_SEND_BUFFER_SIZE > 0) {
+			serverBootstrap.setOption("child.sendBufferSize", Constants.NETWORK_SEND_BUFFER_SIZE);
+		}
+		if (Constants.NETWORK_RECEIVE_BUFFER_SIZE > 0) {
+			serverBootstrap.setOption("child.receiveBufferSize", Constants.NETWORK_RECEIVE_BUFFER_SIZE);
+		}
 		serverBootstrap.bind(address);
 
 		// Finally, initialize whatever else we need.
-		cycleTimer = new Misc.Stopwatch();
+		tickScheduler = new TickScheduler(cycleRate, Constants.TICK_OVERRUN_POLICY);
+		tickScheduler.start();
 		
 		PlayerHandler.register(new Npc(1));
-		
-		/*for(int i = 0; i < 1000; i++) {
-			Player player = new Player(null);
-			player.setUsername("b0t" + i);
-			player.setEncryptor(new ISAACCipher(new int[10]));
-			try {
-				player.login();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}*/
-		
 	}
 
 	/**
 	 * Performs a server cycle.
 	 */
-	private void cycle() {
+	void cycle() {
+		TickProfiler profiler = PlayerHandler.getProfiler();
+		profiler.startCycle();
+
+		// First, run the tasks that are due.
+		profiler.mark(TickProfiler.Phase.TASKS, taskScheduler.process());
+
 		// Next, perform game processing.
 		try {
 			PlayerHandler.process();
@@ -145,22 +165,37 @@ public class Server implements Runnable {
 	}
 
 	/**
-	 * Sleeps for the cycle delay.
+	 * Sleeps until the next cycle is due.
 	 * 
 	 * @throws InterruptedException
 	 */
 	private void sleep() throws InterruptedException {
-		long sleepTime = cycleRate - cycleTimer.elapsed();
-		
-		System.out.println("Cycle time: " + cycleTimer.elapsed());
-		
-		if (sleepTime > 0) {
-			Thread.sleep(sleepTime);
-		} else {
+		if (tickScheduler.awaitNextTick()) {
 			// The server has reached maximum load, players may now lag.
-			System.out.println("[WARNING]: Server load: " + (100 + (Math.abs(sleepTime) / (cycleRate / 100))) + "%!");
+			long cycleTime = tickScheduler.getLastCycleTime() / 1000000;
+			System.out.println("[WARNING]: Server load: " + (cycleTime * 100 / cycleRate) + "%!");
+		}
+		if (tickScheduler.getLastSkippedTicks() > 0) {
+			System.out.println("[WARNING]: Skipped " + tickScheduler.getLastSkippedTicks() + " ticks to get back on schedule!");
 		}
-		cycleTimer.reset();
+	}
+
+	/**
+	 * Gets the task scheduler, which runs delayed and repeating game logic.
+	 * 
+	 * @return the task scheduler
+	 */
+	public TaskScheduler getTaskScheduler() {
+		return taskScheduler;
+	}
+
+	/**
+	 * Gets the tick scheduler.
+	 * 
+	 * @return the tick scheduler
+	 */
+	public TickScheduler getTickScheduler() {
+		return tickScheduler;
 	}
 
 	/**
@@ -0,0 +1,156 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import server.util.SlotAllocator;
+
+/**
+ * Measures a burst of logins followed by a burst of NPC spawns, once with the
+ * SlotAllocator and once with the linear scan for the first free slot that it
+ * replaced. Every round starts from empty slot arrays of the same size as
+ * those of the PlayerHandler.
+ */
+public class SlotBenchmark {
+
+	/** The amount of player slots, slot 0 is never used. */
+	private static final int PLAYER_SLOTS = 2048;
+
+	/** The amount of NPC slots, slot 0 is never used. */
+	private static final int NPC_SLOTS = 8192;
+
+	/** The amount of rounds run before measuring, to warm up the JIT. */
+	private static final int WARMUP_ROUNDS = 20;
+
+	/** Keeps the results alive, so the JIT can not drop the work. */
+	private static long sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length > 3) {
+			System.err.println("Usage: SlotBenchmark [players] [npcs] [rounds]");
+			return;
+		}
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int npcs = args.length > 1 ? Integer.parseInt(args[1]) : 8000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		if (players >= PLAYER_SLOTS || npcs >= NPC_SLOTS) {
+			System.err.println("At most " + (PLAYER_SLOTS - 1) + " players and " + (NPC_SLOTS - 1) + " NPCs fit.");
+			return;
+		}
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			scan(players, npcs);
+			allocate(players, npcs);
+		}
+		long[] scanTimes = new long[rounds];
+		long[] allocatorTimes = new long[rounds];
+		for (int i = 0; i < rounds; i++) {
+			scanTimes[i] = scan(players, npcs);
+			allocatorTimes[i] = allocate(players, npcs);
+		}
+		Arrays.sort(scanTimes);
+		Arrays.sort(allocatorTimes);
+		System.out.println(String.format("%d logins and %d NPC spawns over %d rounds (median/max ms):", players, npcs, rounds));
+		System.out.println(String.format("  linear scan    %8.3f %8.3f", millis(scanTimes[rounds / 2]), millis(scanTimes[rounds - 1])));
+		System.out.println(String.format("  SlotAllocator  %8.3f %8.3f", millis(allocatorTimes[rounds / 2]), millis(allocatorTimes[rounds - 1])));
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Fills the slots by scanning from slot 1 for the first free slot.
+	 *
+	 * @param players
+	 *            the amount of players
+	 * @param npcs
+	 *            the amount of NPCs
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long scan(int players, int npcs) {
+		Object[] playerSlots = new Object[PLAYER_SLOTS];
+		Object[] npcSlots = new Object[NPC_SLOTS];
+		Object entity = new Object();
+		long start = System.nanoTime();
+		for (int i = 0; i < players; i++) {
+			sink += scanFree(playerSlots, entity);
+		}
+		for (int i = 0; i < npcs; i++) {
+			sink += scanFree(npcSlots, entity);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Puts an entity in the first free slot, as register() used to.
+	 *
+	 * @param slots
+	 *            the slots
+	 * @param entity
+	 *            the entity
+	 * @return the slot, or -1 if there are no free slots
+	 */
+	private static int scanFree(Object[] slots, Object entity) {
+		for (int i = 1; i < slots.length; i++) {
+			if (slots[i] == null) {
+				slots[i] = entity;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Fills the slots with SlotAllocators, as the EntityRegistry does.
+	 *
+	 * @param players
+	 *            the amount of players
+	 * @param npcs
+	 *            the amount of NPCs
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long allocate(int players, int npcs) {
+		SlotAllocator playerSlots = new SlotAllocator(PLAYER_SLOTS, Constants.DELAYED_SLOT_REUSE);
+		SlotAllocator npcSlots = new SlotAllocator(NPC_SLOTS, Constants.DELAYED_SLOT_REUSE);
+		long start = System.nanoTime();
+		for (int i = 0; i < players; i++) {
+			sink += playerSlots.allocate();
+		}
+		for (int i = 0; i < npcs; i++) {
+			sink += npcSlots.allocate();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds.
+	 *
+	 * @param nanos
+	 *            the nanoseconds
+	 * @return the milliseconds
+	 */
+	private static double millis(long nanos) {
+		return nanos / 1000000.0;
+	}
+
+}
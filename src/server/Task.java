@@ -0,0 +1,150 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.Player;
+
+/**
+ * A piece of game logic that runs after a delay, measured in ticks, and
+ * optionally keeps running at that interval until it is cancelled. A task
+ * may be bound to a player or NPC, in which case it is cancelled as soon as
+ * the entity is no longer registered.
+ */
+public abstract class Task {
+
+	/** The delay between two executions, in ticks. */
+	private final int delay;
+
+	/** Whether or not the task runs again after executing. */
+	private final boolean repeating;
+
+	/** The player or NPC the task is bound to, or null. */
+	private final Player owner;
+
+	/** Whether or not the task has been scheduled. */
+	private boolean scheduled;
+
+	/** Whether or not the task has been cancelled. */
+	private boolean cancelled;
+
+	/** The amount of turns of the wheel left before the task is due. */
+	int rounds;
+
+	/** The next task in the same bucket of the wheel. */
+	Task next;
+
+	/**
+	 * Creates a new Task.
+	 * 
+	 * @param delay
+	 *            the delay in ticks, at least 1
+	 * @param repeating
+	 *            whether or not the task runs again every delay ticks
+	 */
+	public Task(int delay, boolean repeating) {
+		this(delay, repeating, null);
+	}
+
+	/**
+	 * Creates a new Task that is bound to a player or NPC.
+	 * 
+	 * @param delay
+	 *            the delay in ticks, at least 1
+	 * @param repeating
+	 *            whether or not the task runs again every delay ticks
+	 * @param owner
+	 *            the player or NPC, or null
+	 */
+	public Task(int delay, boolean repeating, Player owner) {
+		if (delay < 1) {
+			throw new IllegalArgumentException("Delay must be at least 1 tick!");
+		}
+		this.delay = delay;
+		this.repeating = repeating;
+		this.owner = owner;
+	}
+
+	/**
+	 * Performs the task. Called on the game thread.
+	 * 
+	 * @throws Exception
+	 */
+	protected abstract void execute() throws Exception;
+
+	/**
+	 * Cancels the task, it will not execute again.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Checks if the task is still due to execute.
+	 * 
+	 * @return true if the task has been scheduled and was not cancelled
+	 */
+	public boolean isRunning() {
+		return scheduled && !cancelled;
+	}
+
+	/**
+	 * Marks the task as scheduled.
+	 */
+	void setScheduled() {
+		if (scheduled) {
+			throw new IllegalStateException("Task already scheduled!");
+		}
+		scheduled = true;
+	}
+
+	/**
+	 * Checks if the task has been cancelled.
+	 * 
+	 * @return true if the task has been cancelled
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Gets the delay between two executions.
+	 * 
+	 * @return the delay in ticks
+	 */
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Checks if the task runs again after executing.
+	 * 
+	 * @return true if the task is repeating
+	 */
+	public boolean isRepeating() {
+		return repeating;
+	}
+
+	/**
+	 * Gets the player or NPC the task is bound to.
+	 * 
+	 * @return the owner, or null
+	 */
+	public Player getOwner() {
+		return owner;
+	}
+
+}
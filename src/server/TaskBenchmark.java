@@ -0,0 +1,114 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Random;
+
+/**
+ * Measures the TaskScheduler with a large amount of pending tasks. The tasks
+ * get random delays, every tenth task repeats and every fourth task is
+ * cancelled, after which the wheel is advanced tick by tick. The first runs
+ * warm up the JIT, the last one is reported.
+ */
+public class TaskBenchmark {
+
+	/** The amount of runs, only the last one is reported. */
+	private static final int RUNS = 3;
+
+	/** The maximum delay of a task, in ticks. */
+	private static final int MAX_DELAY = 1000;
+
+	/** The amount of task executions. */
+	private static long executions;
+
+	/**
+	 * A task that only counts its executions.
+	 */
+	private static class CountingTask extends Task {
+
+		/**
+		 * Creates a new CountingTask.
+		 *
+		 * @param delay
+		 *            the delay in ticks
+		 * @param repeating
+		 *            whether or not the task repeats
+		 */
+		private CountingTask(int delay, boolean repeating) {
+			super(delay, repeating);
+		}
+
+		@Override
+		protected void execute() {
+			executions++;
+		}
+
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if (args.length > 3) {
+			System.err.println("Usage: TaskBenchmark [tasks] [ticks] [seed]");
+			return;
+		}
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+
+		for (int run = 1; run <= RUNS; run++) {
+			Random random = new Random(seed);
+			TaskScheduler scheduler = new TaskScheduler();
+			Task[] scheduled = new Task[tasks];
+			executions = 0;
+
+			long start = System.nanoTime();
+			for (int i = 0; i < tasks; i++) {
+				scheduled[i] = new CountingTask(1 + random.nextInt(MAX_DELAY), i % 10 == 0);
+				scheduler.schedule(scheduled[i]);
+			}
+			long scheduleTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int cancelled = 0;
+			for (int i = 0; i < tasks; i += 4) {
+				scheduled[i].cancel();
+				cancelled++;
+			}
+			long cancelTime = System.nanoTime() - start;
+
+			long total = 0;
+			long max = 0;
+			for (int i = 0; i < ticks; i++) {
+				start = System.nanoTime();
+				scheduler.process();
+				long time = System.nanoTime() - start;
+				total += time;
+				max = Math.max(max, time);
+			}
+
+			if (run == RUNS) {
+				System.out.println(String.format("%d tasks over %d ticks: schedule %.1f ns/task, cancel %.1f ns/task, tick avg %.1f us, max %.1f us", tasks, ticks, scheduleTime / (double) tasks, cancelTime / (double) Math.max(1, cancelled), total / 1000.0 / ticks, max / 1000.0));
+				System.out.println("  " + executions + " executions, " + scheduler.getPending() + " tasks still pending");
+			}
+		}
+	}
+
+}
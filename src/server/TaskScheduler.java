@@ -0,0 +1,168 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.PlayerHandler;
+
+/**
+ * Runs tasks on the game thread using a hashed timing wheel. The wheel has a
+ * bucket per tick of one turn, and a task is put in the bucket of the tick it
+ * is due on, together with the amount of turns left before it is due. Every
+ * tick only the bucket of that tick is visited, so scheduling a task costs
+ * O(1) and a tick costs as much as the tasks in its bucket, no matter how
+ * many tasks are pending.
+ * <p>
+ * Cancelled tasks, and tasks whose owner is no longer registered, are
+ * dropped the next time their bucket is visited, which is at most one turn
+ * of the wheel later.
+ */
+public class TaskScheduler {
+
+	/** The amount of buckets, a power of two (512 ticks is about 5 minutes). */
+	private static final int WHEEL_SIZE = 512;
+
+	/** The mask that maps a tick to its bucket. */
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+	/** The first task of every bucket. */
+	private final Task[] heads = new Task[WHEEL_SIZE];
+
+	/** The last task of every bucket. */
+	private final Task[] tails = new Task[WHEEL_SIZE];
+
+	/** The current tick. */
+	private long tick;
+
+	/** The amount of tasks in the wheel. */
+	private int pending;
+
+	/** The amount of task executions. */
+	private long executed;
+
+	/**
+	 * Schedules a task to execute after its delay.
+	 * 
+	 * @param task
+	 *            the task
+	 */
+	public void schedule(Task task) {
+		task.setScheduled();
+		insert(task);
+	}
+
+	/**
+	 * Advances the wheel by one tick and executes the tasks that are due.
+	 * Must be called on the game thread, once per cycle.
+	 * 
+	 * @return the amount of tasks executed
+	 */
+	public int process() {
+		int index = (int) (++tick & WHEEL_MASK);
+		Task task = heads[index];
+		heads[index] = null;
+		tails[index] = null;
+		int amount = 0;
+		while (task != null) {
+			Task next = task.next;
+			task.next = null;
+			pending--;
+			if (task.isCancelled()) {
+				// Dropped.
+			} else if (task.getOwner() != null && !PlayerHandler.isRegistered(task.getOwner())) {
+				task.cancel();
+			} else if (task.rounds > 0) {
+				task.rounds--;
+				append(index, task);
+			} else {
+				try {
+					task.execute();
+				} catch (Exception ex) {
+					ex.printStackTrace();
+					task.cancel();
+				}
+				amount++;
+				if (task.isRepeating() && !task.isCancelled()) {
+					insert(task);
+				} else {
+					task.cancel();
+				}
+			}
+			task = next;
+		}
+		executed += amount;
+		return amount;
+	}
+
+	/**
+	 * Puts a task in the bucket of the tick it is due on.
+	 * 
+	 * @param task
+	 *            the task
+	 */
+	private void insert(Task task) {
+		int delay = task.getDelay();
+		task.rounds = (delay - 1) / WHEEL_SIZE;
+		append((int) ((tick + delay) & WHEEL_MASK), task);
+	}
+
+	/**
+	 * Appends a task to a bucket.
+	 * 
+	 * @param index
+	 *            the index of the bucket
+	 * @param task
+	 *            the task
+	 */
+	private void append(int index, Task task) {
+		if (tails[index] == null) {
+			heads[index] = task;
+		} else {
+			tails[index].next = task;
+		}
+		tails[index] = task;
+		pending++;
+	}
+
+	/**
+	 * Gets the current tick.
+	 * 
+	 * @return the tick
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Gets the amount of tasks in the wheel, including cancelled tasks that
+	 * have not been dropped yet.
+	 * 
+	 * @return the amount
+	 */
+	public int getPending() {
+		return pending;
+	}
+
+	/**
+	 * Gets the amount of task executions.
+	 * 
+	 * @return the amount
+	 */
+	public long getExecuted() {
+		return executed;
+	}
+
+}
@@ -0,0 +1,306 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Schedules server cycles at a fixed rate. Every tick has a deadline on a
+ * fixed grid (start + n * period) measured with System.nanoTime(), so time
+ * spent sleeping too long or cycles running over do not accumulate as drift.
+ */
+public class TickScheduler {
+
+	/**
+	 * An enum whose values represent what the scheduler does when a cycle
+	 * runs past the deadline of the next tick.
+	 */
+	public static enum OverrunPolicy {
+
+		/**
+		 * Runs the missed ticks back to back until the schedule has caught up,
+		 * so the amount of ticks over time stays the same.
+		 */
+		CATCH_UP,
+
+		/**
+		 * Drops the missed ticks and runs the next tick right away, staying
+		 * on the original grid afterwards.
+		 */
+		SKIP,
+
+		/**
+		 * Runs the next tick right away and moves the whole schedule back by
+		 * the overrun.
+		 */
+		STRETCH
+	}
+
+	/**
+	 * The maximum amount of ticks that CATCH_UP will run back to back. Any
+	 * ticks missed beyond this are skipped, so that a long pause (e.g. a
+	 * garbage collection) does not turn into a burst of ticks.
+	 */
+	public static final int MAX_CATCH_UP_TICKS = 5;
+
+	/** The tick period, in nanoseconds. */
+	private final long period;
+
+	/** The overrun policy. */
+	private final OverrunPolicy policy;
+
+	/** The deadline of the current tick. */
+	private long deadline;
+
+	/** The time at which the current tick started. */
+	private long tickStart;
+
+	/** The time spent in the last cycle, in nanoseconds. */
+	private long lastCycleTime;
+
+	/** The amount of ticks run. */
+	private long ticks;
+
+	/** The amount of ticks that started late. */
+	private long lateTicks;
+
+	/** The amount of ticks that were skipped. */
+	private long skippedTicks;
+
+	/** The amount of ticks skipped before the current tick. */
+	private long lastSkippedTicks;
+
+	/** The amount of ticks that started right away to catch up. */
+	private long catchUpTicks;
+
+	/** The lateness of the last tick, in nanoseconds. */
+	private long lastLateness;
+
+	/** The total lateness of all ticks, in nanoseconds. */
+	private long totalLateness;
+
+	/** The maximum lateness of a tick, in nanoseconds. */
+	private long maxLateness;
+
+	/**
+	 * Creates a new TickScheduler.
+	 *
+	 * @param periodMillis
+	 *            the tick period, in milliseconds
+	 * @param policy
+	 *            the overrun policy
+	 */
+	public TickScheduler(long periodMillis, OverrunPolicy policy) {
+		this.period = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+		this.policy = policy;
+	}
+
+	/**
+	 * Starts the schedule, the first tick is due right away.
+	 */
+	public void start() {
+		deadline = System.nanoTime();
+		tickStart = deadline;
+	}
+
+	/**
+	 * Waits until the deadline of the next tick. Call this right after a
+	 * cycle has finished.
+	 *
+	 * @return true if the cycle took longer than the tick period
+	 * @throws InterruptedException
+	 */
+	public boolean awaitNextTick() throws InterruptedException {
+		long now = System.nanoTime();
+		lastCycleTime = now - tickStart;
+		deadline += period;
+		lastSkippedTicks = 0;
+
+		// Behind schedule, either because this cycle took too long or
+		// because an earlier one did and the ticks are catching up.
+		if (now - deadline > 0) {
+			long missed = (now - deadline) / period;
+			switch (policy) {
+			case CATCH_UP:
+				if (missed > MAX_CATCH_UP_TICKS) {
+					skip(missed - MAX_CATCH_UP_TICKS);
+				}
+				catchUpTicks++;
+				break;
+			case SKIP:
+				skip(missed);
+				break;
+			case STRETCH:
+				deadline = now;
+				break;
+			}
+		} else {
+			long remaining;
+			while ((remaining = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(remaining);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		}
+
+		// Record how late this tick starts compared to its deadline.
+		tickStart = System.nanoTime();
+		long lateness = Math.max(0, tickStart - deadline);
+		ticks++;
+		lastLateness = lateness;
+		totalLateness += lateness;
+		if (lateness > maxLateness) {
+			maxLateness = lateness;
+		}
+		if (lateness >= TimeUnit.MILLISECONDS.toNanos(1)) {
+			lateTicks++;
+		}
+		return lastCycleTime > period;
+	}
+
+	/**
+	 * Skips the specified amount of ticks.
+	 *
+	 * @param amount
+	 *            the amount of ticks
+	 */
+	private void skip(long amount) {
+		deadline += amount * period;
+		skippedTicks += amount;
+		lastSkippedTicks = amount;
+	}
+
+	/**
+	 * Resets the lateness statistics.
+	 */
+	public void resetStatistics() {
+		ticks = 0;
+		lateTicks = 0;
+		skippedTicks = 0;
+		catchUpTicks = 0;
+		totalLateness = 0;
+		maxLateness = 0;
+	}
+
+	/**
+	 * Gets the tick period.
+	 *
+	 * @return the period, in nanoseconds
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Gets the overrun policy.
+	 *
+	 * @return the policy
+	 */
+	public OverrunPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Gets the time spent in the last cycle.
+	 *
+	 * @return the cycle time, in nanoseconds
+	 */
+	public long getLastCycleTime() {
+		return lastCycleTime;
+	}
+
+	/**
+	 * Gets the amount of ticks run since the statistics were reset.
+	 *
+	 * @return the amount of ticks
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Gets the amount of ticks that started at least a millisecond late.
+	 *
+	 * @return the amount of late ticks
+	 */
+	public long getLateTicks() {
+		return lateTicks;
+	}
+
+	/**
+	 * Gets the amount of ticks skipped because of overruns.
+	 *
+	 * @return the amount of skipped ticks
+	 */
+	public long getSkippedTicks() {
+		return skippedTicks;
+	}
+
+	/**
+	 * Gets the amount of ticks skipped right before the current tick.
+	 *
+	 * @return the amount of skipped ticks
+	 */
+	public long getLastSkippedTicks() {
+		return lastSkippedTicks;
+	}
+
+	/**
+	 * Gets the amount of ticks that CATCH_UP started without waiting,
+	 * because the schedule was behind.
+	 *
+	 * @return the amount of catch-up ticks
+	 */
+	public long getCatchUpTicks() {
+		return catchUpTicks;
+	}
+
+	/**
+	 * Gets the lateness of the last tick.
+	 *
+	 * @return the lateness, in nanoseconds
+	 */
+	public long getLastLateness() {
+		return lastLateness;
+	}
+
+	/**
+	 * Gets the average lateness of a tick.
+	 *
+	 * @return the average lateness, in nanoseconds
+	 */
+	public long getAverageLateness() {
+		return ticks == 0 ? 0 : totalLateness / ticks;
+	}
+
+	/**
+	 * Gets the maximum lateness of a tick.
+	 *
+	 * @return the maximum lateness, in nanoseconds
+	 */
+	public long getMaxLateness() {
+		return maxLateness;
+	}
+
+	@Override
+	public String toString() {
+		return "TickScheduler(" + policy + ", ticks: " + ticks + ", late: " + lateTicks + ", skipped: " + skippedTicks + ", caught up: " + catchUpTicks + ", lateness avg/max: " + TimeUnit.NANOSECONDS.toMicros(getAverageLateness()) + "/" + TimeUnit.NANOSECONDS.toMicros(maxLateness) + "us)";
+	}
+
+}
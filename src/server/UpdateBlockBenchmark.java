@@ -0,0 +1,200 @@
+package server;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import server.model.Position;
+import server.model.player.Player;
+import server.model.player.PlayerUpdating;
+import server.net.util.ISAACCipher;
+import server.net.util.StreamBuffer;
+import server.util.Misc;
+
+/**
+ * Measures the update blocks of a crowd in which every player chats and
+ * changes appearance every cycle, so every player sees an update block for
+ * every other player. The blocks are built once by encoding the block for
+ * every observer, as updateState() used to, and once by copying the block
+ * every player encoded for the cycle. The time of the whole update phase is
+ * reported as well.
+ */
+public class UpdateBlockBenchmark {
+
+	/** The amount of rounds run before measuring, to warm up the JIT. */
+	private static final int WARMUP_ROUNDS = 20;
+
+	/** The message the players say, in the packed format the client sends. */
+	private static final byte[] CHAT_TEXT = { 2, 36, 67, 16, 32, 87, 115, 64 };
+
+	/** Keeps the results alive, so the JIT can not drop the work. */
+	private static long sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 2) {
+			System.err.println("Usage: UpdateBlockBenchmark [players] [rounds]");
+			return;
+		}
+		int amount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		Misc.sortEquipmentSlotDefinitions();
+		Misc.loadStackableItems("./data/stackable.dat");
+		Server.setSingleton(new Server("headless", 0, 600));
+
+		// Everyone stands within a 20 by 20 square, in view of each other.
+		Player[] players = new Player[amount];
+		for (int i = 0; i < amount; i++) {
+			Player player = new Player(null);
+			player.setUsername("crowd" + i);
+			player.setPassword("crowd");
+			player.setEncryptor(new ISAACCipher(new int[4]));
+			player.login();
+			player.teleport(new Position(3212 + i % 20, 3212 + (i / 20) % 20));
+			players[i] = player;
+		}
+		for (Player player : players) {
+			PlayerUpdating.update(player);
+			player.reset();
+		}
+
+		StreamBuffer.OutBuffer block = StreamBuffer.newOutBuffer(1024);
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			encodePerObserver(players, block);
+			copyShared(players, block);
+			updateAll(players);
+		}
+		long[] encodeTimes = new long[rounds];
+		long[] copyTimes = new long[rounds];
+		long[] updateTimes = new long[rounds];
+		for (int i = 0; i < rounds; i++) {
+			encodeTimes[i] = encodePerObserver(players, block);
+			copyTimes[i] = copyShared(players, block);
+			updateTimes[i] = updateAll(players);
+		}
+		Arrays.sort(encodeTimes);
+		Arrays.sort(copyTimes);
+		Arrays.sort(updateTimes);
+		System.out.println(String.format("Crowd of %d, everyone chatting and changing appearance, over %d rounds (median ms):", amount, rounds));
+		System.out.println(String.format("  blocks encoded per observer  %8.3f", millis(encodeTimes[rounds / 2])));
+		System.out.println(String.format("  blocks encoded once, copied  %8.3f", millis(copyTimes[rounds / 2])));
+		System.out.println(String.format("  whole update phase           %8.3f", millis(updateTimes[rounds / 2])));
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Flags every player for a chat and appearance update.
+	 *
+	 * @param players
+	 *            the players
+	 */
+	private static void prepare(Player[] players) {
+		for (Player player : players) {
+			player.reset();
+			player.setAppearanceUpdateRequired(true);
+			player.setChatText(CHAT_TEXT);
+			player.setChatUpdateRequired(true);
+			player.setUpdateRequired(true);
+		}
+	}
+
+	/**
+	 * Builds the blocks every player sees by encoding every block for every
+	 * observer.
+	 *
+	 * @param players
+	 *            the players
+	 * @param block
+	 *            the block buffer
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long encodePerObserver(Player[] players, StreamBuffer.OutBuffer block) {
+		prepare(players);
+		long start = System.nanoTime();
+		for (Player observer : players) {
+			block.reset();
+			for (Player other : players) {
+				if (other != observer) {
+					block.writeBytes(PlayerUpdating.encodeState(other, false, false));
+				}
+			}
+			sink += block.getBuffer().writerIndex();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Builds the blocks every player sees by copying the block every player
+	 * encoded for the cycle.
+	 *
+	 * @param players
+	 *            the players
+	 * @param block
+	 *            the block buffer
+	 * @return the time taken, in nanoseconds
+	 */
+	private static long copyShared(Player[] players, StreamBuffer.OutBuffer block) {
+		prepare(players);
+		long start = System.nanoTime();
+		for (Player observer : players) {
+			block.reset();
+			for (Player other : players) {
+				if (other != observer) {
+					PlayerUpdating.updateState(other, block, false, false);
+				}
+			}
+			sink += block.getBuffer().writerIndex();
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Runs the player update of every player.
+	 *
+	 * @param players
+	 *            the players
+	 * @return the time taken, in nanoseconds
+	 * @throws Exception
+	 */
+	private static long updateAll(Player[] players) throws Exception {
+		prepare(players);
+		long start = System.nanoTime();
+		for (Player player : players) {
+			PlayerUpdating.update(player);
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds.
+	 *
+	 * @param nanos
+	 *            the nanoseconds
+	 * @return the milliseconds
+	 */
+	private static double millis(long nanos) {
+		return nanos / 1000000.0;
+	}
+
+}
@@ -21,6 +21,7 @@ import java.util.LinkedList;
 
 import server.model.npc.Npc;
 import server.model.player.Player;
+import server.model.player.storage.SaveLoad;
 import server.util.Misc;
 
 /**
@@ -62,6 +63,9 @@ public class MovementHandler {
 			player.getPosition().move(Misc.DIRECTION_DELTA_X[runPoint.getDirection()], Misc.DIRECTION_DELTA_Y[runPoint.getDirection()]);
 			player.setSecondaryDirection(runPoint.getDirection());
 		}
+		if (walkPoint != null || runPoint != null) {
+			player.updateChunk();
+		}
 
 		// Check for region changes.
 		int deltaX = player.getPosition().getX() - player.getCurrentRegion().getRegionX() * 8;
@@ -150,6 +154,7 @@ public class MovementHandler {
 	 */
 	public void setRunToggled(boolean runToggled) {
 		this.runToggled = runToggled;
+		player.markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	/**
@@ -1,7 +1,5 @@
 package server.model;
 
-import server.util.Misc;
-
 /**
  * Represents the position of a player or NPC.
  * 
@@ -199,15 +197,17 @@ public class Position {
 	}
 
 	/**
-	 * Checks if this position is viewable from the other position.
+	 * Checks if this position is viewable from the other position, which
+	 * must be on the same plane.
 	 * 
 	 * @param other
 	 *            the other position
 	 * @return true if it is viewable, false otherwise
 	 */
 	public boolean isViewableFrom(Position other) {
-		Position p = Misc.delta(this, other);
-		return p.x <= 14 && p.x >= -15 && p.y <= 14 && p.y >= -15;
+		int dx = other.x - x;
+		int dy = other.y - y;
+		return z == other.z && dx <= 14 && dx >= -15 && dy <= 14 && dy >= -15;
 	}
 
 }
@@ -1,7 +1,7 @@
 package server.model.npc;
-import java.util.Iterator;
-
 import server.model.Position;
+import server.model.player.ChunkGrid;
+import server.model.player.LocalList;
 import server.model.player.Player;
 import server.model.player.PlayerHandler;
 import server.net.util.StreamBuffer;
@@ -14,6 +14,19 @@ import server.util.Misc;
  */
 public class NpcUpdating {
 
+	/** The buffer every thread builds update packets in. */
+	private static final ThreadLocal<StreamBuffer.OutBuffer> packetBuffer = StreamBuffer.newScratchBuffer(2048);
+
+	/** The buffer every thread builds the update blocks of a packet in. */
+	private static final ThreadLocal<StreamBuffer.OutBuffer> blockBuffer = StreamBuffer.newScratchBuffer(1024);
+
+	/**
+	 * The most bytes the bits of an update packet can take: the local NPC
+	 * count, up to 255 local NPCs moved or removed (7 bits each), up to 255
+	 * NPCs added (38 bits each) and the update block marker.
+	 */
+	private static final int MAX_BIT_BYTES = (8 + 255 * 7 + 255 * 38 + 14 + 7) / 8;
+
 	/**
 	 * Updates all NPCs for the argued Player.
 	 * 
@@ -21,59 +34,82 @@ public class NpcUpdating {
 	 *            the player
 	 */
 	public static void update(Player player) {
-		// XXX: The buffer sizes may need to be tuned.
-		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(2048);
-		StreamBuffer.OutBuffer block = StreamBuffer.newOutBuffer(1024);
+		StreamBuffer.OutBuffer out = packetBuffer.get();
+		StreamBuffer.OutBuffer block = blockBuffer.get();
+		out.reset();
+		block.reset();
 
 		// Initialize the update packet.
 		out.writeVariableShortPacketHeader(player.getEncryptor(), 65);
 		out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+		out.ensureCapacity(MAX_BIT_BYTES);
 
 		// Update the NPCs in the local list.
-		out.writeBits(8, player.getNpcs().size());
-		
-		for (Iterator<Npc> i = player.getNpcs().iterator(); i.hasNext();) {
-			Npc npc = i.next();
-			if (npc.getPosition().isViewableFrom(player.getPosition()) && npc.isVisible()) {
+		LocalList local = player.getNpcs();
+		Npc[] npcs = PlayerHandler.getNpcs();
+		Position position = player.getPosition();
+		out.writeBits(8, local.size());
+		for (int i = 0; i < local.size(); i++) {
+			int slot = local.get(i);
+			Npc npc = npcs[slot];
+			if (npc != null && npc.getPosition().isViewableFrom(position) && npc.isVisible()) {
 				NpcUpdating.updateNpcMovement(out, npc);
 				if (npc.isUpdateRequired()) {
 					NpcUpdating.updateState(block, npc);
 				}
+				local.retain(slot);
 			} else {
 				// Remove the NPC from the local list.
 				out.writeBit(true);
 				out.writeBits(2, 3);
-				i.remove();
+				local.discard(slot);
 			}
 		}
+		local.finishRetain();
 
-		// Update the local NPC list itself.
-		for (int i = 0; i < PlayerHandler.getNpcs().length; i++) {
-			Npc npc = PlayerHandler.getNpcs()[i];
-			if (npc == null || player.getNpcs().contains(npc) || !npc.isVisible()) {
-				continue;
-			}
-			if (npc.getPosition().isViewableFrom(player.getPosition())) {
-				player.getNpcs().add(npc);
-				addNpc(out, player, npc);
-				if (npc.isUpdateRequired()) {
-					NpcUpdating.updateState(block, npc);
+		// Update the local NPC list itself, from the chunks in view.
+		// A congested client gets no new NPCs until it catches up.
+		if (!player.isCongested()) {
+			ChunkGrid<Npc> grid = PlayerHandler.getNpcGrid();
+			int minChunkX = (position.getX() - 15) >> ChunkGrid.CHUNK_BITS;
+			int maxChunkX = (position.getX() + 15) >> ChunkGrid.CHUNK_BITS;
+			int minChunkY = (position.getY() - 15) >> ChunkGrid.CHUNK_BITS;
+			int maxChunkY = (position.getY() + 15) >> ChunkGrid.CHUNK_BITS;
+			search: for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+				for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+					ChunkGrid.Chunk<Npc> chunk = grid.getChunk(chunkX, chunkY, position.getZ());
+					if (chunk == null) {
+						continue;
+					}
+					for (int i = 0; i < chunk.size(); i++) {
+						if (local.isFull()) {
+							// NPC limit has been reached.
+							break search;
+						}
+						Npc npc = chunk.get(i);
+						if (local.contains(npc.getSlot()) || !npc.isVisible()) {
+							continue;
+						}
+						if (npc.getPosition().isViewableFrom(position)) {
+							local.add(npc.getSlot());
+							addNpc(out, player, npc);
+							if (npc.isUpdateRequired()) {
+								NpcUpdating.updateState(block, npc);
+							}
+						}
+					}
 				}
 			}
 		}
 
-		// Append the update block to the packet if need be.
+		// Mark the start of the update block, if there is one.
 		if (block.getBuffer().writerIndex() > 0) {
 			out.writeBits(14, 16383);
-			out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
-			out.writeBytes(block.getBuffer());
-		} else {
-			out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
 		}
+		out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
 
-		// Ship the packet out to the client.
-		out.finishVariableShortPacketHeader();
-		player.send(out.getBuffer());
+		// Ship the packet out to the client, with the update block.
+		player.send(out.finishVariableShortPacket(block));
 	}
 
 	/**
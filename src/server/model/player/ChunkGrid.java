@@ -0,0 +1,241 @@
+package server.model.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.Position;
+
+/**
+ * A spatial index of entities, which are kept in chunks of 8x8 tiles per
+ * plane. Finding the entities near a position only visits the chunks around
+ * it, instead of every registered entity.
+ * <p>
+ * Chunks are created the first time an entity enters them and are kept
+ * afterwards. Coordinates wrap around at 16384 tiles, so entities far apart
+ * may share a chunk; callers still check the exact distance.
+ */
+public class ChunkGrid<E extends Player> {
+
+	/** The amount of bits of a coordinate that address a tile in a chunk. */
+	public static final int CHUNK_BITS = 3;
+
+	/** The amount of chunks per axis, per plane. */
+	private static final int CHUNKS = 2048;
+
+	/** The amount of planes. */
+	private static final int PLANES = 4;
+
+	/** The chunks, by plane, chunk X and chunk Y. Columns are created lazily. */
+	private final Chunk<?>[][][] chunks = new Chunk<?>[PLANES][CHUNKS][];
+
+	/**
+	 * Adds an entity to the chunk of its position.
+	 * 
+	 * @param entity
+	 *            the entity
+	 */
+	public void add(E entity) {
+		Position p = entity.getPosition();
+		getOrCreateChunk(p.getX() >> CHUNK_BITS, p.getY() >> CHUNK_BITS, p.getZ()).add(entity);
+	}
+
+	/**
+	 * Removes an entity from its chunk.
+	 * 
+	 * @param entity
+	 *            the entity
+	 */
+	public void remove(E entity) {
+		if (entity.chunk != null) {
+			entity.chunk.remove(entity);
+		}
+	}
+
+	/**
+	 * Moves an entity to the chunk of its position if it left its chunk.
+	 * Entities that were not added are ignored.
+	 * 
+	 * @param entity
+	 *            the entity
+	 */
+	public void update(E entity) {
+		Chunk<?> chunk = entity.chunk;
+		if (chunk == null) {
+			return;
+		}
+		Position p = entity.getPosition();
+		if (chunk.matches(p.getX() >> CHUNK_BITS, p.getY() >> CHUNK_BITS, p.getZ())) {
+			return;
+		}
+		chunk.remove(entity);
+		add(entity);
+	}
+
+	/**
+	 * Gets a chunk.
+	 * 
+	 * @param chunkX
+	 *            the chunk X coordinate (tile X >> CHUNK_BITS)
+	 * @param chunkY
+	 *            the chunk Y coordinate (tile Y >> CHUNK_BITS)
+	 * @param z
+	 *            the plane
+	 * @return the chunk, or null if no entity ever entered it
+	 */
+	@SuppressWarnings("unchecked")
+	public Chunk<E> getChunk(int chunkX, int chunkY, int z) {
+		Chunk<?>[] column = chunks[z & (PLANES - 1)][chunkX & (CHUNKS - 1)];
+		if (column == null) {
+			return null;
+		}
+		return (Chunk<E>) column[chunkY & (CHUNKS - 1)];
+	}
+
+	/**
+	 * Gets a chunk, creating it if need be.
+	 * 
+	 * @param chunkX
+	 *            the chunk X coordinate
+	 * @param chunkY
+	 *            the chunk Y coordinate
+	 * @param z
+	 *            the plane
+	 * @return the chunk
+	 */
+	@SuppressWarnings("unchecked")
+	private Chunk<E> getOrCreateChunk(int chunkX, int chunkY, int z) {
+		int plane = z & (PLANES - 1);
+		int x = chunkX & (CHUNKS - 1);
+		int y = chunkY & (CHUNKS - 1);
+		Chunk<?>[] column = chunks[plane][x];
+		if (column == null) {
+			column = new Chunk<?>[CHUNKS];
+			chunks[plane][x] = column;
+		}
+		if (column[y] == null) {
+			column[y] = new Chunk<E>(x, y, plane);
+		}
+		return (Chunk<E>) column[y];
+	}
+
+	/**
+	 * The entities in a chunk, in no particular order.
+	 */
+	public static class Chunk<E extends Player> {
+
+		/** The chunk X coordinate. */
+		private final int chunkX;
+
+		/** The chunk Y coordinate. */
+		private final int chunkY;
+
+		/** The plane. */
+		private final int z;
+
+		/** The entities in the chunk. */
+		private Player[] entities = new Player[4];
+
+		/** The amount of entities in the chunk. */
+		private int size;
+
+		/**
+		 * Creates a new Chunk.
+		 * 
+		 * @param chunkX
+		 *            the chunk X coordinate
+		 * @param chunkY
+		 *            the chunk Y coordinate
+		 * @param z
+		 *            the plane
+		 */
+		private Chunk(int chunkX, int chunkY, int z) {
+			this.chunkX = chunkX;
+			this.chunkY = chunkY;
+			this.z = z;
+		}
+
+		/**
+		 * Adds an entity.
+		 * 
+		 * @param entity
+		 *            the entity
+		 */
+		private void add(Player entity) {
+			if (size == entities.length) {
+				Player[] old = entities;
+				entities = new Player[old.length * 2];
+				System.arraycopy(old, 0, entities, 0, old.length);
+			}
+			entity.chunk = this;
+			entity.chunkIndex = size;
+			entities[size++] = entity;
+		}
+
+		/**
+		 * Removes an entity by moving the last entity into its place.
+		 * 
+		 * @param entity
+		 *            the entity
+		 */
+		private void remove(Player entity) {
+			int index = entity.chunkIndex;
+			Player last = entities[--size];
+			entities[index] = last;
+			last.chunkIndex = index;
+			entities[size] = null;
+			entity.chunk = null;
+			entity.chunkIndex = -1;
+		}
+
+		/**
+		 * Checks if this is the chunk at the given coordinates.
+		 * 
+		 * @param chunkX
+		 *            the chunk X coordinate
+		 * @param chunkY
+		 *            the chunk Y coordinate
+		 * @param z
+		 *            the plane
+		 * @return true if the coordinates match
+		 */
+		private boolean matches(int chunkX, int chunkY, int z) {
+			return this.chunkX == (chunkX & (CHUNKS - 1)) && this.chunkY == (chunkY & (CHUNKS - 1)) && this.z == (z & (PLANES - 1));
+		}
+
+		/**
+		 * Gets an entity.
+		 * 
+		 * @param index
+		 *            the index, between 0 and size()
+		 * @return the entity
+		 */
+		@SuppressWarnings("unchecked")
+		public E get(int index) {
+			return (E) entities[index];
+		}
+
+		/**
+		 * Gets the amount of entities in the chunk.
+		 * 
+		 * @return the amount
+		 */
+		public int size() {
+			return size;
+		}
+
+	}
+
+}
@@ -16,19 +16,23 @@ package server.model.player;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
 import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 
 import server.Constants;
-import server.model.Position;
 import server.net.ReceivedPacket;
+import server.net.packet.PacketClass;
+import server.net.packet.PacketDispatcher;
 import server.net.util.ISAACCipher;
 import server.net.util.StreamBuffer;
 import server.net.util.StreamBuffer.ByteOrder;
@@ -40,9 +44,23 @@ import server.util.Misc;
  * @author blakeman8192
  */
 public abstract class Client {
-	
+
+	/** The amount of packets written by all clients. */
+	private static long packetsFlushed;
+
+	/** The amount of channel writes made by all clients. */
+	private static long flushes;
+
 	private final Channel channel;
-	private final Queue<ReceivedPacket> queuedPackets = new ConcurrentLinkedQueue<ReceivedPacket>();
+	private final Queue<ReceivedPacket> queuedPackets = new ArrayBlockingQueue<ReceivedPacket>(Constants.INBOUND_QUEUE_CAPACITY);
+	private final int[] packetBudgetUsed = new int[PacketClass.values().length];
+	private int floodedCycles;
+	private volatile boolean flooding;
+	private ChannelBuffer[] outbound = new ChannelBuffer[16];
+	private int outboundAmount;
+	private final AtomicInteger backlog = new AtomicInteger();
+	private int backloggedCycles;
+	private int skippedPackets;
 	
 	private final Player player = (Player) this;
 	private final Misc.Stopwatch timeoutStopwatch = new Misc.Stopwatch();
@@ -50,6 +68,7 @@ public abstract class Client {
 	private String username;
 	private String password;
 	private ISAACCipher encryptor;
+	private boolean disconnected;
 
 	/**
 	 * Creates a new Client.
@@ -76,20 +95,58 @@ public abstract class Client {
 	public abstract void logout() throws Exception;
 
 	/**
-	 * Adds a packet to the queue
+	 * Adds a packet to the queue, unless the queue is full or the client has
+	 * been flooding it. Called by the network thread, which disconnects the
+	 * client if the packet was not queued.
+	 * 
 	 * @param packet
+	 *            the packet
+	 * @return true if the packet was queued
 	 */
-	public void queuePacket(ReceivedPacket packet) {
-		queuedPackets.add(packet);
+	public boolean queuePacket(ReceivedPacket packet) {
+		return !flooding && queuedPackets.offer(packet);
 	}
 	
 	/**
-	 * Handles packets we have received
+	 * Handles the packets we have received, as far as the budgets of this
+	 * cycle allow. Once a budget is used up, the rest of the packets are left
+	 * for the next cycle, so that they are still handled in order. Walk
+	 * requests that follow each other are combined into the latest one, as
+	 * it replaces the path of the ones before it anyway.
 	 */
 	public void processQueuedPackets() {
-		ReceivedPacket packet = null;
-		while((packet = queuedPackets.poll()) != null) {
-			handlePacket(packet.getOpcode(), packet.getSize(), StreamBuffer.OutBuffer.newInBuffer(packet.getPayload()));
+		Arrays.fill(packetBudgetUsed, 0);
+		ReceivedPacket walk = null;
+		ReceivedPacket packet;
+		for (int i = 0; i < Constants.PACKETS_PER_CYCLE && (packet = queuedPackets.peek()) != null; i++) {
+			PacketClass type = PacketClass.forOpcode(packet.getOpcode());
+			if (type == PacketClass.MOVEMENT) {
+				queuedPackets.poll();
+				walk = packet;
+				continue;
+			}
+			if (packetBudgetUsed[type.ordinal()] == type.getBudget()) {
+				break;
+			}
+			packetBudgetUsed[type.ordinal()]++;
+			queuedPackets.poll();
+			if (walk != null) {
+				handlePacket(walk);
+				walk = null;
+			}
+			handlePacket(packet);
+		}
+		if (walk != null) {
+			handlePacket(walk);
+		}
+
+		// More than a cycle's worth of packets left over, cycle after cycle,
+		// means the client sends faster than it is allowed to.
+		if (queuedPackets.size() <= Constants.PACKETS_PER_CYCLE) {
+			floodedCycles = 0;
+			flooding = false;
+		} else if (++floodedCycles >= Constants.INBOUND_FLOOD_CYCLES) {
+			flooding = true;
 		}
 	}
 	
@@ -141,7 +198,9 @@ public abstract class Client {
 	 */
 	public void updateOtherFriends(int status) {
 		long myName = Misc.nameToLong(player.getUsername());
-		for(Player plr : PlayerHandler.getPlayers()) {
+		EntityRegistry<Player> players = PlayerHandler.getPlayerList();
+		for(int i = 0; i < players.size(); i++) {
+			Player plr = players.get(i);
 			if(plr == null || plr == player) {
 				continue;
 			}
@@ -163,7 +222,7 @@ public abstract class Client {
 	 * Sends the ignore list to the client
 	 */
 	public void sendIgnoreList() {
-		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer((player.getFriends().length * 8) + 2);
+		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer((player.getIgnores().length * 8) + 3);
 		out.writeVariableShortPacketHeader(getEncryptor(), 214);
 		for(long i : player.getIgnores()) {
 			if(i == 0) {
@@ -182,7 +241,7 @@ public abstract class Client {
 	 * @param world The world the player is on
 	 */
 	public void sendFriendUpdate(long name, byte world) {
-		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer((player.getFriends().length * 8) + 2);
+		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(10);
 		out.writeHeader(getEncryptor(), 50);
 		out.writeLong(name);
 		out.writeByte(world);
@@ -290,6 +349,11 @@ public abstract class Client {
 	 *            the message
 	 */
 	public void sendMessage(String message) {
+		if (isCongested()) {
+			// Not worth making a slow connection slower.
+			skippedPackets++;
+			return;
+		}
 		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(message.length() + 3);
 		out.writeVariablePacketHeader(getEncryptor(), 253);
 		out.writeString(message);
@@ -339,87 +403,26 @@ public abstract class Client {
 	}
 
 	/**
-	 * Disconnects the client.
+	 * Disconnects the client. Must be called on the game thread, network
+	 * threads use PlayerHandler.queueLogout() instead.
 	 */
 	public void disconnect() {
+		if (disconnected) {
+			return;
+		}
+		disconnected = true;
 		System.out.println(this + " disconnecting.");
 		try {
 			logout();
-			channel.close();
+			flush();
+			if (channel != null) {
+				channel.close();
+			}
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
 	}
 
-	/**
-	 * Handles a clicked button.
-	 * 
-	 * @param buttonId
-	 *            the button ID
-	 */
-	private void handleButton(int buttonId) {
-		switch (buttonId) {
-		case 9154:
-			sendLogout();
-			break;
-		case 153:
-			player.getMovementHandler().setRunToggled(true);
-			break;
-		case 152:
-			player.getMovementHandler().setRunToggled(false);
-			break;
-		case 5451:
-		case 5452:
-			player.setBrightness((byte) 0);
-			break;
-		case 6273:
-		case 6157:
-			player.setBrightness((byte) 1);
-			break;
-		case 6275:
-		case 6274:
-			player.setBrightness((byte) 2);
-			break;
-		case 6277:
-		case 6276:
-			player.setBrightness((byte) 3);
-			break;
-		case 6279:
-			player.setMouseButtons(true);
-			break;
-		case 6278:
-			player.setMouseButtons(false);
-			break;
-		case 6280:
-			player.setChatEffects(true);
-			break;
-		case 6281:
-			player.setChatEffects(false);
-			break;
-		case 952:
-			player.setSplitScreen(true);
-			break;
-		case 953:
-			player.setSplitScreen(false);
-			break;
-		case 12591:
-			player.setAcceptAid(true);
-			break;
-		case 12590:
-			player.setAcceptAid(false);
-			break;
-		case 150:
-			player.setRetaliate(true);
-			break;
-		case 151:
-			player.setRetaliate(false);
-			break;
-		default:
-			System.out.println("Unhandled button: " + buttonId);
-			break;
-		}
-	}
-
 	/**
 	 * Sends a packet that tells the client to log out.
 	 */
@@ -448,194 +451,130 @@ public abstract class Client {
 	/**
 	 * Handles the current packet.
 	 */
-	private void handlePacket(int packetOpcode, int packetLength, StreamBuffer.InBuffer in) {
+	private void handlePacket(ReceivedPacket packet) {
 		timeoutStopwatch.reset();
-		// Handle the packet.
 		try {
-			switch (packetOpcode) {
-			case 145: // Remove item.
-				int interfaceID = in.readShort(StreamBuffer.ValueType.A);
-				int slot = in.readShort(StreamBuffer.ValueType.A);
-				in.readShort(StreamBuffer.ValueType.A); // Item ID.
-				if (interfaceID == 1688) {
-					player.unequip(slot);
-				}
-				break;
-			case 41: // Equip item.
-				in.readShort(); // Item ID.
-				slot = in.readShort(StreamBuffer.ValueType.A);
-				in.readShort(); // Interface ID.
-				player.equip(slot);
-				break;
-			case 185: // Button clicking.
-				handleButton(Misc.hexToInt(in.readBytes(2)));
-				break;
-			case 4: // Player chat.
-				int effects = in.readByte(false, StreamBuffer.ValueType.S);
-				int color = in.readByte(false, StreamBuffer.ValueType.S);
-				int chatLength = (packetLength - 2);
-				byte[] text = in.readBytesReverse(chatLength, StreamBuffer.ValueType.A);
-				player.setChatEffects(effects);
-				player.setChatColor(color);
-				player.setChatText(text);
-				player.setChatUpdateRequired(true);
-				break;
-			case 103: // Player command.
-				String command = in.readString();
-				String[] split = command.split(" ");
-				player.handleCommand(split[0].toLowerCase(), Arrays.copyOfRange(split, 1, split.length));
-				break;
-			case 248: // Movement.
-			case 164: // ^
-			case 98: // ^
-				int length = packetLength;
-				if (packetOpcode == 248) {
-					length -= 14;
-				}
-				int steps = (length - 5) / 2;
-				int[][] path = new int[steps][2];
-				int firstStepX = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
-				for (int i = 0; i < steps; i++) {
-					path[i][0] = in.readByte();
-					path[i][1] = in.readByte();
-				}
-				int firstStepY = in.readShort(StreamBuffer.ByteOrder.LITTLE);
-
-				player.getMovementHandler().reset();
-				player.getMovementHandler().setRunPath(in.readByte(StreamBuffer.ValueType.C) == 1);
-				player.getMovementHandler().addToPath(new Position(firstStepX, firstStepY));
-				for (int i = 0; i < steps; i++) {
-					path[i][0] += firstStepX;
-					path[i][1] += firstStepY;
-					player.getMovementHandler().addToPath(new Position(path[i][0], path[i][1]));
-				}
-				player.getMovementHandler().finish();
-				break;
-			case 95: // Chat option changing
-				byte status = (byte) in.readByte();
-				if (status >= 0 && status <= 3) {
-					player.setPublicChat(status);
-				}
-				status = (byte) in.readByte();
-				if (status >= 0 && status <= 3) {
-					player.setPrivateChat(status);
-					updateOtherFriends(player.getPrivateChat());
-				}
-				status = (byte) in.readByte();
-				if (status >= 0 && status <= 3) {
-					player.setTradeCompete(status);
-				}
-				break;
-			case 188: // Add friend
-				long friend = in.readLong();
-				for(int i = 0; i < player.getFriends().length; i++) {
-					if(player.getFriends()[i] == 0) {
-						player.getFriends()[i] = friend;
-						break;
-					}
-				}
-				Player plr = PlayerHandler.getPlayerByName(Misc.longToName(friend));
-				byte world = 0;
-				if(plr != null) {
-					if(plr.getPrivateChat() == 0) {
-						world = Constants.WORLD;
-					} else if(plr.getPrivateChat() == 1) {
-						if(plr.hasFriend(Misc.nameToLong(player.getUsername()))) {
-							world = Constants.WORLD;
-						}
-					}
-					if(player.getPrivateChat() == 1 && plr.hasFriend(Misc.nameToLong(player.getUsername()))) {
-						plr.sendFriendUpdate(Misc.nameToLong(player.getUsername()), Constants.WORLD);
-					}
-				}
-				sendFriendUpdate(friend, world);
-				break;
-			case 215: // Remove friend
-				friend = in.readLong();
-				for(int i = 0; i < player.getFriends().length; i++) {
-					if(player.getFriends()[i] == friend) {
-						player.getFriends()[i] = 0;
-						break;
-					}
-				}
-				if(player.getPrivateChat() == 1) {
-					plr = PlayerHandler.getPlayerByName(Misc.longToName(friend));
-					if(plr != null) {
-						plr.sendFriendUpdate(Misc.nameToLong(player.getUsername()), (byte)0);
-					}
-				}
-				break;
-			case 126: // Send pm
-				friend = in.readLong();
-				plr = PlayerHandler.getPlayerByName(Misc.longToName(friend));
-				if(plr == null) {
-					sendMessage("That is currently offline.");
-					break;
-				}
-				int size = packetLength - 8;
-				byte[] message = in.readBytes(size);
-				plr.sendPrivateMessage(Misc.nameToLong(player.getUsername()), (byte) player.getStaffRights(), message);
-				break;
-			case 74: // Remove ignore
-				long ignore = in.readLong();
-				for(int i = 0; i < player.getIgnores().length; i++) {
-					if(player.getIgnores()[i] == ignore) {
-						player.getIgnores()[i] = 0;
-						break;
-					}
-				}
-				break;
-			case 133: // Add ignore
-				ignore = in.readLong();
-				for(int i = 0; i < player.getIgnores().length; i++) {
-					if(player.getIgnores()[i] == 0) {
-						player.getIgnores()[i] = ignore;
-						break;
-					}
-				}
-				break;
-			case 0: // Empty packets
-			case 3:
-			case 202:
-			case 77:
-			case 86:
-			case 78:
-			case 36:
-			case 226:
-			case 246:
-			case 148:
-			case 183:
-			case 230:
-			case 136:
-			case 189:
-			case 152:
-			case 200:
-			case 85:
-			case 165:
-			case 238:
-			case 150:
-				break;
-			default:
-				System.out.println(this + " unhandled packet received " + packetOpcode + " - " + packetLength);
-				break;
-			}
+			PacketDispatcher.handle(player, packet);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
 	}
 
 	/**
-	 * Sends the buffer to the socket.
+	 * Queues the buffer to be sent to the socket by the next flush().
 	 * 
 	 * @param buffer
 	 *            the buffer
-	 * @throws IOException
 	 */
 	public void send(ChannelBuffer buffer) {
-		if(channel == null || !channel.isConnected()) {
+		if (disconnected) {
 			return;
 		}
-		channel.write(buffer);
+		if (outboundAmount == outbound.length) {
+			outbound = Arrays.copyOf(outbound, outbound.length * 2);
+		}
+		outbound[outboundAmount++] = buffer;
+	}
+
+	/**
+	 * Writes the packets queued by send() to the socket, in a single write.
+	 * Called for every player at the end of the cycle, and when the client
+	 * disconnects. Must be called on the game thread.
+	 */
+	public void flush() {
+		if (!disconnected && backlog.get() > Constants.OUTBOUND_BACKLOG_LIMIT) {
+			if (++backloggedCycles >= Constants.OUTBOUND_BACKLOG_CYCLES) {
+				System.out.println(this + " has " + backlog.get() + " bytes waiting to be written, disconnecting.");
+				Arrays.fill(outbound, 0, outboundAmount, null);
+				outboundAmount = 0;
+				// Logged out at the start of the next cycle, so the other
+				// players are updated before the slot can be reused.
+				PlayerHandler.queueLogout(player);
+				return;
+			}
+		} else {
+			backloggedCycles = 0;
+		}
+		if (outboundAmount == 0) {
+			return;
+		}
+		if (channel != null && channel.isConnected()) {
+			packetsFlushed += outboundAmount;
+			flushes++;
+			// Netty copies the parts straight into its send buffer.
+			ChannelBuffer buffer = outboundAmount == 1 ? outbound[0] : ChannelBuffers.wrappedBuffer(Arrays.copyOf(outbound, outboundAmount));
+			final int bytes = buffer.readableBytes();
+			backlog.addAndGet(bytes);
+			channel.write(buffer).addListener(new ChannelFutureListener() {
+				@Override
+				public void operationComplete(ChannelFuture future) {
+					backlog.addAndGet(-bytes);
+				}
+			});
+		}
+		Arrays.fill(outbound, 0, outboundAmount, null);
+		outboundAmount = 0;
+	}
+
+	/**
+	 * Checks if more bytes are waiting to be written to the client than the
+	 * high water mark, and it has not drained below the low water mark since.
+	 * Congested clients are only sent what they cannot do without.
+	 * 
+	 * @return true if the client is congested
+	 */
+	public boolean isCongested() {
+		return channel != null && !channel.isWritable();
+	}
+
+	/**
+	 * Gets the amount of bytes flushed to the client that have not been
+	 * written to the socket yet.
+	 * 
+	 * @return the amount of bytes
+	 */
+	public int getBacklog() {
+		return backlog.get();
+	}
+
+	/**
+	 * Gets the amount of non-essential packets that were not sent because
+	 * the client was congested.
+	 * 
+	 * @return the amount of packets
+	 */
+	public int getSkippedPackets() {
+		return skippedPackets;
+	}
+
+	/**
+	 * Gets the amount of packets written by all clients.
+	 * 
+	 * @return the amount
+	 */
+	public static long getPacketsFlushed() {
+		return packetsFlushed;
+	}
+
+	/**
+	 * Gets the amount of channel writes made by all clients. Every packet
+	 * used to be a write of its own, so the writes saved by flushing once
+	 * per cycle are the packets flushed minus this.
+	 * 
+	 * @return the amount
+	 */
+	public static long getFlushes() {
+		return flushes;
+	}
+
+	/**
+	 * Checks if the client has no connection, as is the case for the bots of
+	 * a load test.
+	 * 
+	 * @return true if the client has no channel
+	 */
+	public boolean isHeadless() {
+		return channel == null;
 	}
 
 	/**
@@ -716,6 +655,15 @@ public abstract class Client {
 		return player;
 	}
 
+	/**
+	 * Gets whether or not the client has been disconnected.
+	 * 
+	 * @return the disconnected flag
+	 */
+	public boolean isDisconnected() {
+		return disconnected;
+	}
+
 	public Misc.Stopwatch getTimeoutStopwatch() {
 		return timeoutStopwatch;
 	}
@@ -0,0 +1,199 @@
+package server.model.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import server.Constants;
+import server.util.SlotAllocator;
+
+/**
+ * Keeps track of the registered entities of one type. Entities are stored by
+ * slot (the index used by the protocol), and in a dense array in the order
+ * they were registered, so that processing them costs as much as there are
+ * entities instead of as much as there are slots.
+ * <p>
+ * Unregistering an entity leaves a hole (a null entry) in the dense array
+ * until the next call to compact(), so the dense array may be iterated while
+ * entities are being registered and unregistered. Always check the entries
+ * for null.
+ */
+public class EntityRegistry<E extends Player> {
+
+	/** The entities by slot. */
+	private final E[] slots;
+
+	/** Hands out the slots. */
+	private final SlotAllocator allocator;
+
+	/** The entities in the order they were registered. */
+	private final E[] active;
+
+	/** The index of every slot in the dense array. */
+	private final int[] activeIndex;
+
+	/** The length of the dense array, including holes. */
+	private int size;
+
+	/** The amount of registered entities. */
+	private int count;
+
+	/**
+	 * Creates a new EntityRegistry.
+	 *
+	 * @param slots
+	 *            the array that stores the entities by slot, slot 0 is never
+	 *            used
+	 */
+	public EntityRegistry(E[] slots) {
+		this.slots = slots;
+		this.allocator = new SlotAllocator(slots.length, Constants.DELAYED_SLOT_REUSE);
+		this.active = Arrays.copyOf(slots, slots.length);
+		this.activeIndex = new int[slots.length];
+	}
+
+	/**
+	 * Registers an entity in the lowest free slot.
+	 *
+	 * @param entity
+	 *            the entity
+	 */
+	public void register(E entity) {
+		int slot = allocator.allocate();
+		if (slot == -1) {
+			throw new IllegalStateException("Server is full!");
+		}
+		if (size == active.length) {
+			// Too many holes this cycle, close them early.
+			compact();
+		}
+		slots[slot] = entity;
+		entity.setSlot(slot);
+		activeIndex[slot] = size;
+		active[size++] = entity;
+		count++;
+	}
+
+	/**
+	 * Unregisters an entity.
+	 *
+	 * @param entity
+	 *            the entity
+	 */
+	public void unregister(E entity) {
+		int slot = entity.getSlot();
+		if (slot == -1 || slots[slot] != entity) {
+			return;
+		}
+		slots[slot] = null;
+		active[activeIndex[slot]] = null;
+		allocator.release(slot);
+		count--;
+	}
+
+	/**
+	 * Checks if an entity is registered.
+	 * 
+	 * @param entity
+	 *            the entity
+	 * @return true if the entity is registered
+	 */
+	public boolean contains(E entity) {
+		int slot = entity.getSlot();
+		return slot != -1 && slots[slot] == entity;
+	}
+
+	/**
+	 * Marks the slots of the entities unregistered so far to be released by
+	 * the next call to releaseSlots(). Call this right before the clients are
+	 * updated.
+	 */
+	public void sealReleasedSlots() {
+		allocator.sealPending();
+	}
+
+	/**
+	 * Makes the slots sealed by sealReleasedSlots() available again. Call this
+	 * once every client has been updated. The slots of entities unregistered
+	 * during or after the update are kept until the next update has told
+	 * every client they are gone.
+	 */
+	public void releaseSlots() {
+		allocator.releasePending();
+	}
+
+	/**
+	 * Removes the holes left by unregistered entities from the dense array,
+	 * keeping the registration order. Must not be called while the dense
+	 * array is being iterated.
+	 */
+	public void compact() {
+		if (count == size) {
+			return;
+		}
+		int newSize = 0;
+		for (int i = 0; i < size; i++) {
+			E entity = active[i];
+			if (entity != null) {
+				activeIndex[entity.getSlot()] = newSize;
+				active[newSize++] = entity;
+			}
+		}
+		Arrays.fill(active, newSize, size, null);
+		size = newSize;
+	}
+
+	/**
+	 * Gets the entity at an index of the dense array.
+	 *
+	 * @param index
+	 *            the index, between 0 and size()
+	 * @return the entity, or null if it has been unregistered
+	 */
+	public E get(int index) {
+		return active[index];
+	}
+
+	/**
+	 * Gets the length of the dense array, including the holes left by
+	 * unregistered entities.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the amount of registered entities.
+	 *
+	 * @return the amount
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Gets the entities by slot.
+	 *
+	 * @return the slots
+	 */
+	public E[] getSlots() {
+		return slots;
+	}
+
+}
@@ -0,0 +1,134 @@
+package server.model.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The slots of the entities a client knows about, in the order they were
+ * added, which is the order the client expects them in the update packets.
+ * Membership is kept in a bit set over all slots, so checking whether an
+ * entity is in the list costs O(1), and nothing is allocated after creation.
+ * <p>
+ * Entries are removed while iterating: visit every index in order, call
+ * retain() or discard() with the slot, then call finishRetain().
+ */
+public class LocalList {
+
+	/** The slots, in the order they were added. */
+	private final int[] slots;
+
+	/** The slots in the list, one bit per slot. */
+	private final long[] members;
+
+	/** The amount of slots in the list. */
+	private int size;
+
+	/** The amount of slots retained during the current iteration. */
+	private int retained;
+
+	/**
+	 * Creates a new LocalList.
+	 * 
+	 * @param capacity
+	 *            the amount of slots of the entity type
+	 * @param maxSize
+	 *            the maximum amount of entities in the list
+	 */
+	public LocalList(int capacity, int maxSize) {
+		this.slots = new int[maxSize];
+		this.members = new long[(capacity + 63) >> 6];
+	}
+
+	/**
+	 * Adds a slot to the end of the list. Check isFull() first.
+	 * 
+	 * @param slot
+	 *            the slot
+	 */
+	public void add(int slot) {
+		members[slot >> 6] |= 1L << slot;
+		slots[size++] = slot;
+	}
+
+	/**
+	 * Checks if a slot is in the list.
+	 * 
+	 * @param slot
+	 *            the slot
+	 * @return true if the slot is in the list
+	 */
+	public boolean contains(int slot) {
+		return (members[slot >> 6] & (1L << slot)) != 0;
+	}
+
+	/**
+	 * Keeps the slot at the current index of an iteration.
+	 * 
+	 * @param slot
+	 *            the slot
+	 */
+	public void retain(int slot) {
+		slots[retained++] = slot;
+	}
+
+	/**
+	 * Removes the slot at the current index of an iteration.
+	 * 
+	 * @param slot
+	 *            the slot
+	 */
+	public void discard(int slot) {
+		members[slot >> 6] &= ~(1L << slot);
+	}
+
+	/**
+	 * Finishes an iteration, closing the gaps left by discarded slots.
+	 */
+	public void finishRetain() {
+		size = retained;
+		retained = 0;
+	}
+
+	/**
+	 * Gets the slot at an index.
+	 * 
+	 * @param index
+	 *            the index, between 0 and size()
+	 * @return the slot
+	 */
+	public int get(int index) {
+		return slots[index];
+	}
+
+	/**
+	 * Gets the amount of slots in the list.
+	 * 
+	 * @return the amount
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if no more slots can be added.
+	 * 
+	 * @return true if the list is full
+	 */
+	public boolean isFull() {
+		return size == slots.length;
+	}
+
+}
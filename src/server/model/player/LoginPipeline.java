@@ -0,0 +1,116 @@
+package server.model.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.util.Misc;
+
+/**
+ * Logs players in in two stages. The saved game of a player is loaded and the
+ * credentials are checked on a small pool of login workers, after which the
+ * game thread registers the player and sends the initial packets. The game
+ * thread finishes a limited amount of logins per cycle, so a burst of logins
+ * is spread over several cycles instead of stalling one.
+ */
+public class LoginPipeline {
+
+	/** The login workers. */
+	private final ThreadPoolExecutor executor;
+
+	/** The players that have been loaded and are waiting to be registered. */
+	private final Queue<Player> loaded = new ConcurrentLinkedQueue<Player>();
+
+	/**
+	 * Creates a new LoginPipeline.
+	 *
+	 * @param threads
+	 *            the amount of login workers
+	 * @param capacity
+	 *            the maximum amount of logins waiting for a worker
+	 */
+	public LoginPipeline(int threads, int capacity) {
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "login-worker-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Submits a player to be loaded. If too many logins are already waiting,
+	 * the player is rejected.
+	 *
+	 * @param player
+	 *            the player
+	 */
+	public void submit(final Player player) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						player.load();
+					} catch (Exception ex) {
+						ex.printStackTrace();
+						player.setLoginResponse(Misc.LOGIN_RESPONSE_COULD_NOT_COMPLETE_LOGIN);
+					}
+					loaded.add(player);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			player.setLoginResponse(Misc.LOGIN_RESPONSE_LOGIN_LIMIT_EXCEEDED);
+			loaded.add(player);
+		}
+	}
+
+	/**
+	 * Finishes the logins of loaded players. Must be called on the game
+	 * thread.
+	 *
+	 * @param max
+	 *            the maximum amount of logins to finish
+	 * @return the amount of logins finished
+	 */
+	public int finish(int max) {
+		int amount = 0;
+		Player player;
+		while (amount < max && (player = loaded.poll()) != null) {
+			try {
+				player.login();
+			} catch (Exception ex) {
+				ex.printStackTrace();
+				player.disconnect();
+			}
+			amount++;
+		}
+		return amount;
+	}
+
+}
@@ -16,16 +16,14 @@ package server.model.player;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-
 import org.jboss.netty.channel.Channel;
 
+import server.Server;
+import server.TaskScheduler;
+import server.TickScheduler;
 import server.model.MovementHandler;
 import server.model.Position;
-import server.model.npc.Npc;
+import server.model.player.storage.Details;
 import server.model.player.storage.SaveLoad;
 import server.net.util.StreamBuffer;
 import server.util.Misc;
@@ -38,13 +36,20 @@ import server.util.Misc;
 public class Player extends Client {
 
 	private Position position = new Position((3222 + (int)Math.floor(Math.random() * 100)), (3222 + (int)Math.floor(Math.random() * 100)));
-	private final Map<Integer, Player> players = new HashMap<Integer, Player>();
-	private final List<Npc> npcs = new LinkedList<Npc>();
+	private LocalList players;
+	private LocalList npcs;
 	private MovementHandler movementHandler = new MovementHandler(this);
 	private Position currentRegion = new Position(0, 0, 0);
 	private int primaryDirection = -1;
 	private int secondaryDirection = -1;
 	private int slot = -1;
+	private int loginResponse = Misc.LOGIN_RESPONSE_OK;
+	private int dirtySections;
+
+	// The chunk of the spatial index this player is in, see ChunkGrid.
+	ChunkGrid.Chunk<?> chunk;
+	int chunkIndex = -1;
+	private Details savedSnapshot;
 	private int staffRights = 0;
 	private int chatColor;
 	private int chatEffect;
@@ -80,6 +85,12 @@ public class Player extends Client {
 	private boolean needsPlacement = false;
 	private boolean resetMovementQueue = false;
 
+	// The update blocks encoded this cycle, see getUpdateBlock().
+	private final byte[][] updateBlocks = new byte[4][];
+
+	// The encoded appearance, until it changes, see getAppearanceBlock().
+	private byte[] appearanceBlock;
+
 	/**
 	 * Creates a new Player.
 	 * 
@@ -149,6 +160,7 @@ public class Player extends Client {
 	 */
 	public void setSkill(int skillID, int level) {
 		skills[skillID] = level;
+		markDirty(SaveLoad.SECTION_SKILLS);
 		sendSkill(skillID, skills[skillID], experience[skillID]);
 	}
 
@@ -162,6 +174,7 @@ public class Player extends Client {
 	 */
 	public void addSkillExp(int skillID, int exp) {
 		experience[skillID] += exp;
+		markDirty(SaveLoad.SECTION_SKILLS);
 		sendSkill(skillID, skills[skillID], experience[skillID]);
 	}
 
@@ -175,6 +188,7 @@ public class Player extends Client {
 	 */
 	public void removeSkillExp(int skillID, int exp) {
 		experience[skillID] -= exp;
+		markDirty(SaveLoad.SECTION_SKILLS);
 		sendSkill(skillID, skills[skillID], experience[skillID]);
 	}
 
@@ -188,18 +202,14 @@ public class Player extends Client {
 	 */
 	public void handleCommand(String keyword, String[] args) {
 		if(keyword.equals("players")) {
-			int count = 0;
-			for(Player player : PlayerHandler.getPlayers()) {
-				if(player != null)
-					count++;
-			}
-			sendMessage("Players online: " + count);
+			sendMessage("Players online: " + PlayerHandler.playerAmount());
 		}
 		if (keyword.equals("master")) {
 			for (int i = 0; i < skills.length; i++) {
 				skills[i] = 99;
 				experience[i] = 200000000;
 			}
+			markDirty(SaveLoad.SECTION_SKILLS);
 			sendSkills();
 		}
 		if (keyword.equals("noob")) {
@@ -207,6 +217,7 @@ public class Player extends Client {
 				skills[i] = 1;
 				experience[i] = 0;
 			}
+			markDirty(SaveLoad.SECTION_SKILLS);
 			sendSkills();
 		}
 		if (keyword.equals("empty")) {
@@ -229,6 +240,18 @@ public class Player extends Client {
 		if (keyword.equals("mypos")) {
 			sendMessage("You are at: " + getPosition());
 		}
+		if (keyword.equals("tickstats")) {
+			TickScheduler scheduler = Server.getSingleton().getTickScheduler();
+			if (args.length > 0 && args[0].equals("reset")) {
+				scheduler.resetStatistics();
+				sendMessage("Tick statistics reset.");
+			} else {
+				sendMessage("Ticks: " + scheduler.getTicks() + ", late: " + scheduler.getLateTicks() + ", skipped: " + scheduler.getSkippedTicks() + ", caught up: " + scheduler.getCatchUpTicks());
+				sendMessage("Lateness last/avg/max: " + scheduler.getLastLateness() / 1000 + "/" + scheduler.getAverageLateness() / 1000 + "/" + scheduler.getMaxLateness() / 1000 + "us");
+				TaskScheduler tasks = Server.getSingleton().getTaskScheduler();
+				sendMessage("Tasks pending: " + tasks.getPending() + ", executed: " + tasks.getExecuted());
+			}
+		}
 	}
 
 	/**
@@ -240,6 +263,7 @@ public class Player extends Client {
 	public void equip(int slot) {
 		int id = inventory[slot];
 		int amount = inventoryN[slot];
+		markDirty(SaveLoad.SECTION_INVENTORY | SaveLoad.SECTION_EQUIPMENT);
 		if (amount > 1) {
 			// More than one? Equip the stack.
 			if (Misc.isStackable(id)) {
@@ -298,6 +322,7 @@ public class Player extends Client {
 		if (addInventoryItem(id, amount)) {
 			equipment[slot] = -1;
 			equipmentN[slot] = 0;
+			markDirty(SaveLoad.SECTION_EQUIPMENT);
 			sendEquipment(slot, -1, 0);
 			sendInventory();
 			setAppearanceUpdateRequired(true);
@@ -312,6 +337,7 @@ public class Player extends Client {
 			inventory[i] = -1;
 			inventoryN[i] = 0;
 		}
+		markDirty(SaveLoad.SECTION_INVENTORY);
 		sendInventory();
 	}
 
@@ -328,6 +354,7 @@ public class Player extends Client {
 	 *         inventory
 	 */
 	public boolean addInventoryItem(int id, int amount) {
+		markDirty(SaveLoad.SECTION_INVENTORY);
 		if (Misc.isStackable(id)) {
 			// Add the item to an existing stack if there is one.
 			boolean found = false;
@@ -384,6 +411,7 @@ public class Player extends Client {
 	 *            the desired amount
 	 */
 	public void removeInventoryItem(int id, int amount) {
+		markDirty(SaveLoad.SECTION_INVENTORY);
 		if (Misc.isStackable(id)) {
 			// Find the existing stack (if there is one).
 			for (int i = 0; i < inventory.length; i++) {
@@ -447,6 +475,7 @@ public class Player extends Client {
 	public void teleport(Position position) {
 		movementHandler.reset();
 		getPosition().setAs(position);
+		updateChunk();
 		setResetMovementQueue(true);
 		setNeedsPlacement(true);
 		sendMapRegion();
@@ -463,28 +492,84 @@ public class Player extends Client {
 		setChatUpdateRequired(false);
 		setResetMovementQueue(false);
 		setNeedsPlacement(false);
+		clearUpdateBlocks();
 	}
 
-	@Override
-	public void login() throws Exception {
-		int response = Misc.LOGIN_RESPONSE_OK;
+	/**
+	 * Gets the update block of this player for the current cycle. The block
+	 * is encoded the first time it is requested and shared by every observer
+	 * afterwards, so it is encoded at most once per variant per cycle. May be
+	 * called by several update workers at once.
+	 * 
+	 * @param forceAppearance
+	 *            whether or not to include the appearance even if it did not
+	 *            change
+	 * @param noChat
+	 *            whether or not to leave the chat out
+	 * @return the encoded block, which must not be modified
+	 */
+	public synchronized byte[] getUpdateBlock(boolean forceAppearance, boolean noChat) {
+		int variant = (forceAppearance ? 1 : 0) | (noChat ? 2 : 0);
+		byte[] block = updateBlocks[variant];
+		if (block == null) {
+			block = PlayerUpdating.encodeState(this, forceAppearance, noChat);
+			updateBlocks[variant] = block;
+		}
+		return block;
+	}
 
-		// Check if the player is already logged in.
-		for (Player player : PlayerHandler.getPlayers()) {
-			if (player == null) {
-				continue;
-			}
-			if (player.getUsername().equals(getUsername())) {
-				response = Misc.LOGIN_RESPONSE_ACCOUNT_ONLINE;
-			}
+	/**
+	 * Gets the encoded appearance of this player. The appearance is encoded
+	 * once and reused until the player's looks change, which is signalled by
+	 * setAppearanceUpdateRequired(true). Whoever changes the equipment,
+	 * appearance, colors or gender must call it.
+	 * 
+	 * @return the encoded appearance, which must not be modified
+	 */
+	public synchronized byte[] getAppearanceBlock() {
+		if (appearanceBlock == null) {
+			appearanceBlock = PlayerUpdating.encodeAppearance(this);
+		}
+		return appearanceBlock;
+	}
+
+	/**
+	 * Clears the update blocks of the current cycle.
+	 */
+	private synchronized void clearUpdateBlocks() {
+		for (int i = 0; i < updateBlocks.length; i++) {
+			updateBlocks[i] = null;
 		}
+	}
 
-		// Load the player and send the login response.
+	/**
+	 * Loads the saved game of the player and checks the credentials. This is
+	 * called on a login worker before the player is registered, so it may
+	 * only touch this player.
+	 * 
+	 * @throws Exception
+	 */
+	public void load() throws Exception {
 		int status = SaveLoad.load(this);
 		if (status == 2) { // Invalid username/password.
-			response = Misc.LOGIN_RESPONSE_INVALID_CREDENTIALS;
+			setLoginResponse(Misc.LOGIN_RESPONSE_INVALID_CREDENTIALS);
 		}
+	}
 
+	@Override
+	public void login() throws Exception {
+		if (isDisconnected()) {
+			// The connection was closed while the player was being loaded.
+			return;
+		}
+		int response = getLoginResponse();
+
+		// Check if the player is already logged in.
+		if (response == Misc.LOGIN_RESPONSE_OK && PlayerHandler.getPlayerByName(getUsername()) != null) {
+			response = Misc.LOGIN_RESPONSE_ACCOUNT_ONLINE;
+		}
+
+		// Send the login response.
 		StreamBuffer.OutBuffer resp = StreamBuffer.newOutBuffer(3);
 		resp.writeByte(response);
 		resp.writeByte(getStaffRights());
@@ -539,7 +624,7 @@ public class Player extends Client {
 		PlayerHandler.unregister(this);
 		System.out.println(this + " has logged out.");
 		if (getSlot() != -1) {
-			SaveLoad.save(this);
+			SaveLoad.queueSave(this);
 		}
 	}
 
@@ -560,6 +645,15 @@ public class Player extends Client {
 	 */
 	public void setPosition(Position position) {
 		this.position = position;
+		updateChunk();
+	}
+
+	/**
+	 * Moves the player to the chunk of its current position in the spatial
+	 * index. Call this whenever the position changes.
+	 */
+	public void updateChunk() {
+		PlayerHandler.updateChunk(this);
 	}
 
 	/**
@@ -684,6 +778,73 @@ public class Player extends Client {
 		return slot;
 	}
 
+	/**
+	 * Marks sections of the saved game as changed since the last save.
+	 * 
+	 * @param sections
+	 *            the SaveLoad.SECTION_* flags of the changed sections
+	 */
+	public void markDirty(int sections) {
+		dirtySections |= sections;
+	}
+
+	/**
+	 * Sets the sections of the saved game that changed since the last save.
+	 * 
+	 * @param dirtySections
+	 *            the SaveLoad.SECTION_* flags
+	 */
+	public void setDirtySections(int dirtySections) {
+		this.dirtySections = dirtySections;
+	}
+
+	/**
+	 * Gets the sections of the saved game that changed since the last save.
+	 * 
+	 * @return the SaveLoad.SECTION_* flags
+	 */
+	public int getDirtySections() {
+		return dirtySections;
+	}
+
+	/**
+	 * Sets the snapshot taken by the last save (or load).
+	 * 
+	 * @param savedSnapshot
+	 *            the snapshot
+	 */
+	public void setSavedSnapshot(Details savedSnapshot) {
+		this.savedSnapshot = savedSnapshot;
+	}
+
+	/**
+	 * Gets the snapshot taken by the last save (or load).
+	 * 
+	 * @return the snapshot, or null if the player was never saved
+	 */
+	public Details getSavedSnapshot() {
+		return savedSnapshot;
+	}
+
+	/**
+	 * Sets the response sent when the login is finished.
+	 * 
+	 * @param loginResponse
+	 *            the login response
+	 */
+	public void setLoginResponse(int loginResponse) {
+		this.loginResponse = loginResponse;
+	}
+
+	/**
+	 * Gets the response sent when the login is finished.
+	 * 
+	 * @return the login response
+	 */
+	public int getLoginResponse() {
+		return loginResponse;
+	}
+
 	public void setUpdateRequired(boolean updateRequired) {
 		this.updateRequired = updateRequired;
 	}
@@ -695,6 +856,9 @@ public class Player extends Client {
 	public void setAppearanceUpdateRequired(boolean appearanceUpdateRequired) {
 		if (appearanceUpdateRequired) {
 			setUpdateRequired(true);
+			synchronized (this) {
+				appearanceBlock = null;
+			}
 		}
 		this.appearanceUpdateRequired = appearanceUpdateRequired;
 	}
@@ -788,21 +952,39 @@ public class Player extends Client {
 
 	public void setGender(int gender) {
 		this.gender = gender;
+		markDirty(SaveLoad.SECTION_APPEARANCE);
+		setAppearanceUpdateRequired(true);
 	}
 
 	public int getGender() {
 		return gender;
 	}
 
-/*	public List<Player> getPlayers() {
-		return players;
-	} */
-
-	public List<Npc> getNpcs() {
+	/**
+	 * Gets the NPCs this player's client knows about. The list is created
+	 * the first time it is needed, so that NPCs (which are players too) do
+	 * not carry one.
+	 * 
+	 * @return the local NPC list
+	 */
+	public LocalList getNpcs() {
+		if (npcs == null) {
+			npcs = new LocalList(PlayerHandler.getNpcs().length, 255);
+		}
 		return npcs;
 	}
 
-	public Map<Integer, Player> getPlayers() {
+	/**
+	 * Gets the players this player's client knows about. The list is created
+	 * the first time it is needed, so that NPCs (which are players too) do
+	 * not carry one.
+	 * 
+	 * @return the local player list
+	 */
+	public LocalList getPlayers() {
+		if (players == null) {
+			players = new LocalList(PlayerHandler.getPlayers().length, 255);
+		}
 		return players;
 	}
 
@@ -812,6 +994,7 @@ public class Player extends Client {
 
 	public void setBrightness(byte brightness) {
 		this.brightness = brightness;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public boolean mouseButtons() {
@@ -820,6 +1003,7 @@ public class Player extends Client {
 
 	public void setMouseButtons(boolean mouseButtons) {
 		this.mouseButtons = mouseButtons;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public boolean splitScreen() {
@@ -828,6 +1012,7 @@ public class Player extends Client {
 
 	public void setSplitScreen(boolean splitScreen) {
 		this.splitScreen = splitScreen;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public boolean acceptAid() {
@@ -836,6 +1021,7 @@ public class Player extends Client {
 
 	public void setAcceptAid(boolean acceptAid) {
 		this.acceptAid = acceptAid;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public boolean retaliate() {
@@ -844,6 +1030,7 @@ public class Player extends Client {
 
 	public void setRetaliate(boolean retaliate) {
 		this.retaliate = retaliate;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public boolean chatEffects() {
@@ -852,6 +1039,7 @@ public class Player extends Client {
 
 	public void setChatEffects(boolean chatEffects) {
 		this.chatEffects = chatEffects;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public byte getPublicChat() {
@@ -860,6 +1048,7 @@ public class Player extends Client {
 
 	public void setPublicChat(byte pubicChat) {
 		this.publicChat = pubicChat;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public byte getTradeCompete() {
@@ -868,6 +1057,7 @@ public class Player extends Client {
 
 	public void setTradeCompete(byte tradeCompete) {
 		this.tradeCompete = tradeCompete;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public byte getPrivateChat() {
@@ -876,6 +1066,7 @@ public class Player extends Client {
 
 	public void setPrivateChat(byte privateChat) {
 		this.privateChat = privateChat;
+		markDirty(SaveLoad.SECTION_SETTINGS);
 	}
 
 	public long[] getFriends() {
@@ -1,5 +1,8 @@
 package server.model.player;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 /*
@@ -19,8 +22,14 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import server.Constants;
 import server.model.npc.Npc;
 import server.model.npc.NpcUpdating;
+import server.model.player.storage.AutoSave;
+import server.model.player.storage.SaveLoad;
+import server.net.NetworkMetrics;
+import server.net.packet.PacketDispatcher;
+import server.util.TickProfiler;
 
 /**
  * Handles all logged in players.
@@ -35,31 +44,67 @@ public class PlayerHandler {
 	/** All registered NPCs. */
 	private static final Npc[] npcs = new Npc[8192];
 
+	/** All registered players, in the order they were registered. */
+	private static final EntityRegistry<Player> playerList = new EntityRegistry<Player>(players);
+
+	/** All registered NPCs, in the order they were registered. */
+	private static final EntityRegistry<Npc> npcList = new EntityRegistry<Npc>(npcs);
+
+	/** All registered players, by chunk. */
+	private static final ChunkGrid<Player> playerGrid = new ChunkGrid<Player>();
+
+	/** All registered NPCs, by chunk. */
+	private static final ChunkGrid<Npc> npcGrid = new ChunkGrid<Npc>();
+
+	/** All registered players, by lower case username. */
+	private static final Map<String, Player> playersByName = new HashMap<String, Player>();
+
+	/**
+	 * Loads players on the login workers, and queues them for registration.
+	 */
+	private static final LoginPipeline loginPipeline = new LoginPipeline(Constants.LOGIN_THREADS, Constants.LOGIN_QUEUE_CAPACITY);
+
 	/**
-	 * Login queue
+	 * Logout queue, for clients whose connection was closed by a network
+	 * thread.
 	 */
-	private static final Queue<Player> queuedLogins = new ConcurrentLinkedQueue<Player>();
+	private static final Queue<Player> queuedLogouts = new ConcurrentLinkedQueue<Player>();
+
+	/** The workers that build the update packets, or null to update serially. */
+	private static final UpdateWorkerPool updateWorkers = Constants.UPDATE_THREADS > 0 ? new UpdateWorkerPool(Constants.UPDATE_THREADS) : null;
+
+	/** The players being updated by the update workers this cycle. */
+	private static final Player[] updateQueue = new Player[players.length];
+
+	/** Saves the players that changed, a few per cycle. */
+	private static final AutoSave autoSave = new AutoSave(playerList, Constants.AUTOSAVE_PER_CYCLE);
+
+	/** Times the phases of every cycle. */
+	private static final TickProfiler profiler = new TickProfiler(Constants.PROFILER_INTERVAL);
 
 	/**
-	 * Performs the processing of all players.
+	 * Performs the processing of all players. The cycle is started on the
+	 * profiler by the caller and ended here.
 	 * 
 	 * @throws Exception
 	 */
 	public static void process() throws Exception {
-
 		/**
 		 * Process logins
 		 */
 		Player plr = null;
-		while ((plr = queuedLogins.poll()) != null) {
-			plr.login();
+		int logins = loginPipeline.finish(Constants.LOGINS_PER_CYCLE);
+		while ((plr = queuedLogouts.poll()) != null) {
+			plr.disconnect();
 		}
+		profiler.mark(TickProfiler.Phase.LOGINS, logins);
 
 		/**
 		 * Process packets for each players
 		 */
-		for (int i = 0; i < players.length; i++) {
-			Player player = players[i];
+		int processed = 0;
+		for (int i = 0; i < playerList.size(); i++) {
+			Player player = playerList.get(i);
 			if (player == null) {
 				continue;
 			}
@@ -69,11 +114,14 @@ public class PlayerHandler {
 				ex.printStackTrace();
 				player.disconnect();
 			}
+			processed++;
 		}
+		profiler.mark(TickProfiler.Phase.PACKETS, processed);
 
 		// Perform any logic processing for players.
-		for (int i = 0; i < players.length; i++) {
-			Player player = players[i];
+		processed = 0;
+		for (int i = 0; i < playerList.size(); i++) {
+			Player player = playerList.get(i);
 			if (player == null) {
 				continue;
 			}
@@ -83,11 +131,14 @@ public class PlayerHandler {
 				ex.printStackTrace();
 				player.disconnect();
 			}
+			processed++;
 		}
+		profiler.mark(TickProfiler.Phase.PLAYER_LOGIC, processed);
 
 		// Perform any logic processing for NPCs.
-		for (int i = 0; i < npcs.length; i++) {
-			Npc npc = npcs[i];
+		processed = 0;
+		for (int i = 0; i < npcList.size(); i++) {
+			Npc npc = npcList.get(i);
 			if (npc == null) {
 				continue;
 			}
@@ -97,26 +148,57 @@ public class PlayerHandler {
 				ex.printStackTrace();
 				unregister(npc);
 			}
+			processed++;
+		}
+		profiler.mark(TickProfiler.Phase.NPC_LOGIC, processed);
+
+		// Update all players. Entities unregistered from here on keep their
+		// slots until the next update has removed them.
+		playerList.sealReleasedSlots();
+		npcList.sealReleasedSlots();
+		processed = 0;
+		if (updateWorkers != null) {
+			for (int i = 0; i < playerList.size(); i++) {
+				if (playerList.get(i) != null) {
+					updateQueue[processed++] = playerList.get(i);
+				}
+			}
+			updateWorkers.update(updateQueue, processed);
+			Arrays.fill(updateQueue, 0, processed, null);
+		} else {
+			for (int i = 0; i < playerList.size(); i++) {
+				Player player = playerList.get(i);
+				if (player == null) {
+					continue;
+				}
+				try {
+					PlayerUpdating.update(player);
+					NpcUpdating.update(player);
+				} catch (Exception ex) {
+					ex.printStackTrace();
+					player.disconnect();
+				}
+				processed++;
+			}
 		}
+		profiler.mark(TickProfiler.Phase.UPDATE, processed);
 
-		// Update all players.
-		for (int i = 0; i < players.length; i++) {
-			Player player = players[i];
+		// Write the packets of this cycle, one write per player.
+		processed = 0;
+		for (int i = 0; i < playerList.size(); i++) {
+			Player player = playerList.get(i);
 			if (player == null) {
 				continue;
 			}
-			try {
-				PlayerUpdating.update(player);
-				NpcUpdating.update(player);
-			} catch (Exception ex) {
-				ex.printStackTrace();
-				player.disconnect();
-			}
+			player.flush();
+			processed++;
 		}
+		profiler.mark(TickProfiler.Phase.FLUSH, processed);
 
 		// Reset all players after cycle.
-		for (int i = 0; i < players.length; i++) {
-			Player player = players[i];
+		processed = 0;
+		for (int i = 0; i < playerList.size(); i++) {
+			Player player = playerList.get(i);
 			if (player == null) {
 				continue;
 			}
@@ -126,11 +208,12 @@ public class PlayerHandler {
 				ex.printStackTrace();
 				player.disconnect();
 			}
+			processed++;
 		}
 
 		// Reset all NPCs after cycle.
-		for (int i = 0; i < npcs.length; i++) {
-			Npc npc = npcs[i];
+		for (int i = 0; i < npcList.size(); i++) {
+			Npc npc = npcList.get(i);
 			if (npc == null) {
 				continue;
 			}
@@ -140,6 +223,54 @@ public class PlayerHandler {
 				ex.printStackTrace();
 				unregister(npc);
 			}
+			processed++;
+		}
+		// Close the holes left by entities that were unregistered, and free
+		// the slots of those that every client has seen leave.
+		playerList.compact();
+		playerList.releaseSlots();
+		npcList.compact();
+		npcList.releaseSlots();
+		profiler.mark(TickProfiler.Phase.RESET, processed);
+
+		// Save a few of the players that changed.
+		profiler.mark(TickProfiler.Phase.AUTOSAVE, autoSave.process());
+		profiler.endCycle();
+		if (profiler.getCycles() == 0) {
+			// A profile interval just ended.
+			reportBacklogs();
+			String packets = PacketDispatcher.summary(10);
+			if (packets != null) {
+				System.out.println(packets);
+			}
+			System.out.println("Autosave: " + autoSave.getSaved() + " saves queued, " + autoSave.getSkipped() + " unchanged players skipped since startup.");
+			System.out.println(SaveLoad.summary());
+			String network = NetworkMetrics.summary();
+			if (network != null) {
+				System.out.println(network);
+			}
+		}
+	}
+
+	/**
+	 * Prints the outbound backlog of every player that has more bytes
+	 * waiting to be written than the low water mark, if there are any.
+	 */
+	private static void reportBacklogs() {
+		StringBuilder b = null;
+		for (int i = 0; i < playerList.size(); i++) {
+			Player player = playerList.get(i);
+			if (player == null || player.getBacklog() <= Constants.OUTBOUND_LOW_WATER_MARK) {
+				continue;
+			}
+			if (b == null) {
+				b = new StringBuilder("Outbound backlogs (bytes waiting, packets skipped):");
+			}
+			b.append(System.getProperty("line.separator"));
+			b.append(String.format("  %-12s %8d %6d%s", player.getUsername(), player.getBacklog(), player.getSkippedPackets(), player.isCongested() ? " congested" : ""));
+		}
+		if (b != null) {
+			System.out.println(b);
 		}
 	}
 
@@ -150,14 +281,9 @@ public class PlayerHandler {
 	 *            the player
 	 */
 	public static void register(Player player) {
-		for (int i = 1; i < players.length; i++) {
-			if (players[i] == null) {
-				players[i] = player;
-				player.setSlot(i);
-				return;
-			}
-		}
-		throw new IllegalStateException("Server is full!");
+		playerList.register(player);
+		playerGrid.add(player);
+		playersByName.put(player.getUsername().toLowerCase(), player);
 	}
 
 	/**
@@ -167,14 +293,8 @@ public class PlayerHandler {
 	 *            the npc
 	 */
 	public static void register(Npc npc) {
-		for (int i = 1; i < npcs.length; i++) {
-			if (npcs[i] == null) {
-				npcs[i] = npc;
-				npc.setSlot(i);
-				return;
-			}
-		}
-		throw new IllegalStateException("Server is full!");
+		npcList.register(npc);
+		npcGrid.add(npc);
 	}
 
 	/**
@@ -184,10 +304,26 @@ public class PlayerHandler {
 	 *            the player
 	 */
 	public static void unregister(Player player) {
-		if (player.getSlot() == -1) {
-			return;
+		if (playersByName.get(player.getUsername().toLowerCase()) == player) {
+			playersByName.remove(player.getUsername().toLowerCase());
+		}
+		playerGrid.remove(player);
+		playerList.unregister(player);
+	}
+
+	/**
+	 * Moves a player or NPC to the chunk of its position in the spatial
+	 * index. Unregistered entities are ignored.
+	 * 
+	 * @param entity
+	 *            the player or NPC
+	 */
+	public static void updateChunk(Player entity) {
+		if (entity instanceof Npc) {
+			npcGrid.update((Npc) entity);
+		} else {
+			playerGrid.update(entity);
 		}
-		players[player.getSlot()] = null;
 	}
 
 	/**
@@ -197,10 +333,22 @@ public class PlayerHandler {
 	 *            the npc
 	 */
 	public static void unregister(Npc npc) {
-		if (npc.getSlot() == -1) {
-			return;
+		npcGrid.remove(npc);
+		npcList.unregister(npc);
+	}
+
+	/**
+	 * Checks if a player or NPC is registered.
+	 * 
+	 * @param entity
+	 *            the player or NPC
+	 * @return true if the entity is registered
+	 */
+	public static boolean isRegistered(Player entity) {
+		if (entity instanceof Npc) {
+			return npcList.contains((Npc) entity);
 		}
-		npcs[npc.getSlot()] = null;
+		return playerList.contains(entity);
 	}
 
 	/**
@@ -209,13 +357,7 @@ public class PlayerHandler {
 	 * @return the amount of online players
 	 */
 	public static int playerAmount() {
-		int amount = 0;
-		for (int i = 1; i < players.length; i++) {
-			if (players[i] != null) {
-				amount++;
-			}
-		}
-		return amount;
+		return playerList.count();
 	}
 
 	/**
@@ -224,13 +366,7 @@ public class PlayerHandler {
 	 * @return the amount of online NPCs
 	 */
 	public static int npcAmount() {
-		int amount = 0;
-		for (int i = 1; i < npcs.length; i++) {
-			if (npcs[i] != null) {
-				amount++;
-			}
-		}
-		return amount;
+		return npcList.count();
 	}
 
 	/**
@@ -252,12 +388,68 @@ public class PlayerHandler {
 	}
 
 	/**
-	 * Queues a successful login
+	 * Gets all registered players, in the order they were registered.
+	 * 
+	 * @return the players
+	 */
+	public static EntityRegistry<Player> getPlayerList() {
+		return playerList;
+	}
+
+	/**
+	 * Gets all registered NPCs, in the order they were registered.
+	 * 
+	 * @return the npcs
+	 */
+	public static EntityRegistry<Npc> getNpcList() {
+		return npcList;
+	}
+
+	/**
+	 * Gets the spatial index of all registered players.
+	 * 
+	 * @return the player grid
+	 */
+	public static ChunkGrid<Player> getPlayerGrid() {
+		return playerGrid;
+	}
+
+	/**
+	 * Gets the spatial index of all registered NPCs.
+	 * 
+	 * @return the NPC grid
+	 */
+	public static ChunkGrid<Npc> getNpcGrid() {
+		return npcGrid;
+	}
+
+	/**
+	 * Gets the profiler that times the phases of every cycle.
+	 * 
+	 * @return the profiler
+	 */
+	public static TickProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Queues a successful login, the player is loaded on a login worker and
+	 * registered on the game thread afterwards.
 	 * 
 	 * @param player
 	 */
 	public static void queueLogin(Player player) {
-		queuedLogins.add(player);
+		loginPipeline.submit(player);
+	}
+
+	/**
+	 * Queues a logout, the player is disconnected on the game thread during
+	 * the next cycle.
+	 * 
+	 * @param player
+	 */
+	public static void queueLogout(Player player) {
+		queuedLogouts.add(player);
 	}
 
 	/**
@@ -268,13 +460,7 @@ public class PlayerHandler {
 	 * @return The player instance
 	 */
 	public static Player getPlayerByName(String name) {
-		for (Player player : players) {
-			if (player == null)
-				continue;
-			if (player.getUsername().equalsIgnoreCase(name))
-				return player;
-		}
-		return null;
+		return playersByName.get(name.toLowerCase());
 	}
 
 }
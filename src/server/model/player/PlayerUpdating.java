@@ -1,7 +1,4 @@
 package server.model.player;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import server.model.Position;
 import server.net.util.StreamBuffer;
@@ -31,6 +28,26 @@ import server.util.Misc;
  */
 public final class PlayerUpdating {
 
+	/** The buffer every thread builds update packets in. */
+	private static final ThreadLocal<StreamBuffer.OutBuffer> packetBuffer = StreamBuffer.newScratchBuffer(10240);
+
+	/** The buffer every thread builds the update blocks of a packet in. */
+	private static final ThreadLocal<StreamBuffer.OutBuffer> blockBuffer = StreamBuffer.newScratchBuffer(10000);
+
+	/** The buffer every thread encodes the update block of a player in. */
+	private static final ThreadLocal<StreamBuffer.OutBuffer> stateBuffer = StreamBuffer.newScratchBuffer(512);
+
+	/** The buffer every thread encodes the appearance of a player in. */
+	private static final ThreadLocal<StreamBuffer.OutBuffer> appearanceBuffer = StreamBuffer.newScratchBuffer(128);
+
+	/**
+	 * The most bytes the bits of an update packet can take: the movement of
+	 * the player, the local player count, up to 255 local players moved or
+	 * removed (10 bits each), up to 255 players added (23 bits each) and the
+	 * attributes block marker.
+	 */
+	private static final int MAX_BIT_BYTES = (21 + 8 + 255 * 10 + 255 * 23 + 11 + 7) / 8;
+
 	/**
 	 * Updates the player.
 	 * 
@@ -38,13 +55,15 @@ public final class PlayerUpdating {
 	 *            the player
 	 */
 	public static void update(Player player) {
-		// XXX: The buffer sizes may need to be tuned.
-		StreamBuffer.OutBuffer out = StreamBuffer.newOutBuffer(10240);
-		StreamBuffer.OutBuffer block = StreamBuffer.newOutBuffer(10000);
+		StreamBuffer.OutBuffer out = packetBuffer.get();
+		StreamBuffer.OutBuffer block = blockBuffer.get();
+		out.reset();
+		block.reset();
 
 		// Initialize the update packet.
 		out.writeVariableShortPacketHeader(player.getEncryptor(), 81);
 		out.setAccessType(StreamBuffer.AccessType.BIT_ACCESS);
+		out.ensureCapacity(MAX_BIT_BYTES);
 
 		// Update this player.
 		PlayerUpdating.updateLocalPlayerMovement(player, out);
@@ -53,52 +72,68 @@ public final class PlayerUpdating {
 		}
 
 		// Update other local players.
-		out.writeBits(8, player.getPlayers().size());
-		
-		Iterator<Entry<Integer, Player>> it = player.getPlayers().entrySet().iterator();
-		while(it.hasNext()) {
-			Map.Entry<Integer, Player> pairs = (Map.Entry<Integer, Player>)it.next();
-			if (pairs.getValue().getPosition().isViewableFrom(player.getPosition())) {
-				PlayerUpdating.updateOtherPlayerMovement(pairs.getValue(), out);
-				if (pairs.getValue().isUpdateRequired()) {
-					PlayerUpdating.updateState(pairs.getValue(), block, false, false);
+		LocalList local = player.getPlayers();
+		Player[] players = PlayerHandler.getPlayers();
+		Position position = player.getPosition();
+		out.writeBits(8, local.size());
+		for (int i = 0; i < local.size(); i++) {
+			int slot = local.get(i);
+			Player other = players[slot];
+			if (other != null && other.getPosition().isViewableFrom(position)) {
+				PlayerUpdating.updateOtherPlayerMovement(other, out);
+				if (other.isUpdateRequired()) {
+					PlayerUpdating.updateState(other, block, false, false);
 				}
+				local.retain(slot);
 			} else {
 				out.writeBit(true);
 				out.writeBits(2, 3);
-				it.remove();
+				local.discard(slot);
 			}
 		}
-		
-		// Update the local player list.
-		for (int i = 0; i < PlayerHandler.getPlayers().length; i++) {
-			if (player.getPlayers().size() >= 255) {
-				// Player limit has been reached.
-				break;
-			}
-			Player other = PlayerHandler.getPlayers()[i];
-			if (other == null || other == player) {
-				continue;
-			}
-			if (!player.getPlayers().containsKey(i) && other.getPosition().isViewableFrom(player.getPosition())) {
-				player.getPlayers().put(i, other);
-				PlayerUpdating.addPlayer(out, player, other);
-				PlayerUpdating.updateState(other, block, true, false);
+		local.finishRetain();
+
+		// Update the local player list, from the chunks in view.
+		// A congested client gets no new players until it catches up.
+		if (!player.isCongested()) {
+			ChunkGrid<Player> grid = PlayerHandler.getPlayerGrid();
+			int minChunkX = (position.getX() - 15) >> ChunkGrid.CHUNK_BITS;
+			int maxChunkX = (position.getX() + 15) >> ChunkGrid.CHUNK_BITS;
+			int minChunkY = (position.getY() - 15) >> ChunkGrid.CHUNK_BITS;
+			int maxChunkY = (position.getY() + 15) >> ChunkGrid.CHUNK_BITS;
+			search: for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+				for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+					ChunkGrid.Chunk<Player> chunk = grid.getChunk(chunkX, chunkY, position.getZ());
+					if (chunk == null) {
+						continue;
+					}
+					for (int i = 0; i < chunk.size(); i++) {
+						if (local.isFull()) {
+							// Player limit has been reached.
+							break search;
+						}
+						Player other = chunk.get(i);
+						if (other == player) {
+							continue;
+						}
+						if (!local.contains(other.getSlot()) && other.getPosition().isViewableFrom(position)) {
+							local.add(other.getSlot());
+							PlayerUpdating.addPlayer(out, player, other);
+							PlayerUpdating.updateState(other, block, true, false);
+						}
+					}
+				}
 			}
 		}
 
-		// Append the attributes block to the main packet.
+		// Mark the start of the attributes block, if there is one.
 		if (block.getBuffer().writerIndex() > 0) {
 			out.writeBits(11, 2047);
-			out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
-			out.writeBytes(block.getBuffer());
-		} else {
-			out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
 		}
+		out.setAccessType(StreamBuffer.AccessType.BYTE_ACCESS);
 
-		// Finish the packet and send it.
-		out.finishVariableShortPacketHeader();
-		player.send(out.getBuffer());
+		// Finish the packet with the attributes block and send it.
+		player.send(out.finishVariableShortPacket(block));
 	}
 
 	/**
@@ -125,7 +160,22 @@ public final class PlayerUpdating {
 	 *            the buffer
 	 */
 	public static void appendAppearance(Player player, StreamBuffer.OutBuffer out) {
-		StreamBuffer.OutBuffer block = StreamBuffer.newOutBuffer(128);
+		byte[] appearance = player.getAppearanceBlock();
+		out.writeByte(appearance.length, StreamBuffer.ValueType.C);
+		out.writeBytes(appearance);
+	}
+
+	/**
+	 * Encodes the appearance of a player. Use appendAppearance() instead,
+	 * which reuses the appearance encoded by the player until it changes.
+	 * 
+	 * @param player
+	 *            the player
+	 * @return the encoded appearance
+	 */
+	static byte[] encodeAppearance(Player player) {
+		StreamBuffer.OutBuffer block = appearanceBuffer.get();
+		block.reset();
 
 		block.writeByte(0); // Gender
 		block.writeByte(0); // Skull icon
@@ -236,10 +286,7 @@ public final class PlayerUpdating {
 		block.writeLong(Misc.nameToLong(player.getUsername()));
 		block.writeByte(3); // Combat level.
 		block.writeShort(0); // Total level.
-
-		// Append the block length and the block to the packet.
-		out.writeByte(block.getBuffer().writerIndex(), StreamBuffer.ValueType.C);
-		out.writeBytes(block.getBuffer());
+		return block.toByteArray();
 	}
 
 	/**
@@ -280,7 +327,7 @@ public final class PlayerUpdating {
 			int posX = player.getPosition().getLocalX(player.getCurrentRegion());
 			int posY = player.getPosition().getLocalY(player.getCurrentRegion());
 			appendPlacement(out, posX, posY, player.getPosition().getZ(), player.isResetMovementQueue(), updateRequired);
-			player.setNeedsPlacement(false);
+			// The flag is cleared in Player.reset(), updating only reads it.
 		} else { // No placement update, check for movement.
 			int pDir = player.getPrimaryDirection();
 			int sDir = player.getSecondaryDirection();
@@ -333,7 +380,8 @@ public final class PlayerUpdating {
 	}
 
 	/**
-	 * Updates the state of a player.
+	 * Updates the state of a player, by copying the update block the player
+	 * encoded for this cycle.
 	 * 
 	 * @param player
 	 *            the player
@@ -341,6 +389,20 @@ public final class PlayerUpdating {
 	 *            the block
 	 */
 	public static void updateState(Player player, StreamBuffer.OutBuffer block, boolean forceAppearance, boolean noChat) {
+		block.writeBytes(player.getUpdateBlock(forceAppearance, noChat));
+	}
+
+	/**
+	 * Encodes the state of a player. Use updateState() instead, which only
+	 * encodes every variant of the block once per cycle.
+	 * 
+	 * @param player
+	 *            the player
+	 * @return the encoded block
+	 */
+	public static byte[] encodeState(Player player, boolean forceAppearance, boolean noChat) {
+		StreamBuffer.OutBuffer block = stateBuffer.get();
+		block.reset();
 
 		// First we must prepare the mask.
 		int mask = 0x0;
@@ -374,6 +436,7 @@ public final class PlayerUpdating {
 		// Face coordinates
 		// Primary hit
 		// Secondary hit
+		return block.toByteArray();
 	}
 
 	/**
@@ -0,0 +1,119 @@
+package server.model.player;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.model.npc.NpcUpdating;
+
+/**
+ * Builds the player and NPC update packets of every player on a pool of
+ * worker threads. The world is not modified while the workers are running, so
+ * every worker only reads the state of other entities and writes to the state
+ * of the player it is updating (its local lists and its own packets).
+ */
+public class UpdateWorkerPool {
+
+	/** The worker threads. */
+	private final ExecutorService executor;
+
+	/** The update tasks, one per worker thread. */
+	private final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+	/** The index of the next player to be updated. */
+	private final AtomicInteger cursor = new AtomicInteger();
+
+	/** The players that failed to update during the last run. */
+	private final Queue<Player> failed = new ConcurrentLinkedQueue<Player>();
+
+	/** The players being updated. */
+	private Player[] players;
+
+	/** The amount of players being updated. */
+	private int amount;
+
+	/**
+	 * Creates a new UpdateWorkerPool.
+	 *
+	 * @param threads
+	 *            the amount of worker threads
+	 */
+	public UpdateWorkerPool(int threads) {
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "update-worker-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (int i = 0; i < threads; i++) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					int index;
+					while ((index = cursor.getAndIncrement()) < amount) {
+						Player player = players[index];
+						try {
+							PlayerUpdating.update(player);
+							NpcUpdating.update(player);
+						} catch (Exception ex) {
+							ex.printStackTrace();
+							failed.add(player);
+						}
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Updates the players and blocks until every update packet has been sent.
+	 * Players whose update failed are disconnected afterwards, on the calling
+	 * thread.
+	 *
+	 * @param players
+	 *            the players to update
+	 * @param amount
+	 *            the amount of players in the array
+	 * @throws InterruptedException
+	 */
+	public void update(Player[] players, int amount) throws InterruptedException {
+		this.players = players;
+		this.amount = amount;
+		cursor.set(0);
+		executor.invokeAll(tasks);
+		this.players = null;
+
+		Player player;
+		while ((player = failed.poll()) != null) {
+			player.disconnect();
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package server.model.player.storage;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.EntityRegistry;
+import server.model.player.Player;
+
+/**
+ * Saves the online players in the background. A few players are visited per
+ * cycle, going round the registry, so every player is saved regularly
+ * without a burst of saves in one cycle. Players that did not change since
+ * they were last saved are skipped, and only the changed sections of the
+ * others are copied.
+ */
+public class AutoSave {
+
+	/** The players to save. */
+	private final EntityRegistry<Player> players;
+
+	/** The maximum amount of players visited per cycle. */
+	private final int perCycle;
+
+	/** The index in the registry of the next player to visit. */
+	private int cursor;
+
+	/** The amount of saves queued. */
+	private long saved;
+
+	/** The amount of visited players that did not need to be saved. */
+	private long skipped;
+
+	/**
+	 * Creates a new AutoSave.
+	 * 
+	 * @param players
+	 *            the players to save
+	 * @param perCycle
+	 *            the maximum amount of players visited per cycle
+	 */
+	public AutoSave(EntityRegistry<Player> players, int perCycle) {
+		this.players = players;
+		this.perCycle = perCycle;
+	}
+
+	/**
+	 * Visits the next players, queueing a save for those that changed. Must
+	 * be called on the game thread.
+	 * 
+	 * @return the amount of saves queued
+	 */
+	public int process() {
+		int size = players.size();
+		int amount = 0;
+		for (int i = 0; i < Math.min(perCycle, size); i++) {
+			if (cursor >= size) {
+				cursor = 0;
+			}
+			Player player = players.get(cursor++);
+			if (player == null) {
+				continue;
+			}
+			if (!SaveLoad.needsSave(player)) {
+				skipped++;
+				continue;
+			}
+			SaveLoad.queueSave(player);
+			saved++;
+			amount++;
+		}
+		return amount;
+	}
+
+	/**
+	 * Gets the amount of saves queued.
+	 * 
+	 * @return the amount
+	 */
+	public long getSaved() {
+		return saved;
+	}
+
+	/**
+	 * Gets the amount of visited players that did not need to be saved.
+	 * 
+	 * @return the amount
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+}
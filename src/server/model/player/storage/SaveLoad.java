@@ -17,6 +17,9 @@ package server.model.player.storage;
  */
 
 import java.io.File;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import server.model.Position;
 import server.model.player.Player;
@@ -36,54 +39,231 @@ public class SaveLoad {
 	 */
 	private static ObjectMapper mapper = new ObjectMapper();
 
+	/** The skills section of a saved game. */
+	public static final int SECTION_SKILLS = 1;
+
+	/** The inventory section of a saved game. */
+	public static final int SECTION_INVENTORY = 1 << 1;
+
+	/** The equipment section of a saved game. */
+	public static final int SECTION_EQUIPMENT = 1 << 2;
+
+	/** The friends and ignores section of a saved game. */
+	public static final int SECTION_FRIENDS = 1 << 3;
+
+	/** The settings section of a saved game. */
+	public static final int SECTION_SETTINGS = 1 << 4;
+
+	/** The gender and appearance section of a saved game. */
+	public static final int SECTION_APPEARANCE = 1 << 5;
+
+	/** Every section of a saved game. */
+	public static final int SECTION_ALL = (1 << 6) - 1;
+
 	/** The directory where players are saved. */
 	public static final String directory = "./data/characters/";
 
 	/**
-	 * Saves the player.
+	 * Writes saved games in the background.
+	 */
+	private static final SaveQueue queue = new SaveQueue();
+
+	/**
+	 * Takes a snapshot of the player on the calling thread and queues it to
+	 * be written by the save writer thread. Headless players are skipped.
 	 * 
 	 * @param player
 	 *            the player to save
-	 * @return
 	 */
-	public static void save(Player player) throws Exception {
+	public static void queueSave(Player player) {
+		if (player.isHeadless()) {
+			return;
+		}
+		queue.submit(player.getUsername(), snapshotChanges(player));
+	}
+
+	/**
+	 * Checks if anything that is saved of a player changed since the player
+	 * was last saved (or loaded). Headless players are never saved.
+	 * 
+	 * @param player
+	 *            the player
+	 * @return true if the player needs to be saved
+	 */
+	public static boolean needsSave(Player player) {
+		if (player.isHeadless()) {
+			return false;
+		}
+		Details saved = player.getSavedSnapshot();
+		if (saved == null || player.getDirtySections() != 0) {
+			return true;
+		}
+		Location location = saved.getLocation();
+		Position position = player.getPosition();
+		return location.getX() != position.getX() || location.getY() != position.getY() || location.getZ() != position.getZ();
+	}
+
+	/**
+	 * Takes a snapshot of the sections of a player that changed since the
+	 * last save, reusing the rest from the previous snapshot. The snapshot
+	 * becomes the base of the next one and the changes are cleared.
+	 * 
+	 * @param player
+	 *            the player
+	 * @return the snapshot
+	 */
+	private static Details snapshotChanges(Player player) {
+		Details details = snapshot(player, player.getSavedSnapshot(), player.getDirtySections());
+		player.setSavedSnapshot(details);
+		player.setDirtySections(0);
+		return details;
+	}
+
+	/**
+	 * Builds a summary of the save queue.
+	 * 
+	 * @return the summary
+	 */
+	public static String summary() {
+		return "Save queue: " + queue.getPending() + " waiting, " + queue.getCoalesced() + " coalesced since startup.";
+	}
+
+	/**
+	 * Writes all queued saves and stops the save writer thread.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public static void shutdown() throws InterruptedException {
+		queue.shutdown();
+	}
+
+	/**
+	 * Writes a snapshot to the saved game of an account. The snapshot is
+	 * written to a temporary file first, which then replaces the saved game,
+	 * so a crash halfway through never leaves a broken saved game behind.
+	 * 
+	 * @param username
+	 *            the username of the account
+	 * @param details
+	 *            the snapshot
+	 * @throws Exception
+	 */
+	static void write(String username, Details details) throws Exception {
+		File file = new File(directory + username + ".json");
+		File temp = new File(directory + username + ".json.tmp");
+		mapper.writeValue(temp, details);
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of everything that is saved of a player. The snapshot
+	 * shares no state with the player, so it may be written on another
+	 * thread.
+	 * 
+	 * @param player
+	 *            the player
+	 * @return the snapshot
+	 */
+	public static Details snapshot(Player player) {
+		return snapshot(player, null, SECTION_ALL);
+	}
+
+	/**
+	 * Takes a snapshot of a player, copying only the given sections and
+	 * sharing the other sections with a previous snapshot. Snapshots are
+	 * never modified once taken, so sharing is safe.
+	 * 
+	 * @param player
+	 *            the player
+	 * @param previous
+	 *            the previous snapshot, or null to copy every section
+	 * @param sections
+	 *            the SECTION_* flags of the sections to copy
+	 * @return the snapshot
+	 */
+	public static Details snapshot(Player player, Details previous, int sections) {
+		if (previous == null) {
+			sections = SECTION_ALL;
+		}
 		Details details = new Details();
 		
 		details.setPassword(player.getPassword());
 		details.setRights(player.getStaffRights());
 		details.setLocation(new Location(player.getPosition().getX(), player.getPosition().getY(), player.getPosition().getZ()));
-		details.setGender(player.getGender());
-		details.setAppearance(player.getAppearance());
-		details.setColors(player.getColors());
-		details.setBrightness(player.getBrightness());
-		details.setMouseButtons(player.mouseButtons());
-		details.setSplitScreen(player.splitScreen());
-		details.setAcceptAid(player.acceptAid());
-		details.setRetaliate(player.retaliate());
-		details.setChatEffects(player.chatEffects());
-		details.setPublicChat(player.getPublicChat());
-		details.setPrivateChat(player.getPrivateChat());
-		details.setTradeCompete(player.getTradeCompete());
-		details.setRunning(player.getMovementHandler().isRunToggled());
-		details.setFriends(player.getFriends());
-		details.setIgnores(player.getIgnores());
-		
-		details.setSkills(new Skill[player.getSkills().length]);
-		for (int i = 0; i < player.getSkills().length; i++) {
-			details.getSkills()[i] = new Skill(player.getSkills()[i], player.getExperience()[i]);
-		}
-		
-		details.setInventory(new ItemContainer[player.getInventory().length]);
-		for (int i = 0; i < player.getInventory().length; i++) {
-			details.getInventory()[i] = new ItemContainer(player.getInventory()[i], player.getInventoryN()[i]);
-		}
-		
-		details.setEquipment( new ItemContainer[player.getEquipment().length]);
-		for (int i = 0; i < player.getEquipment().length; i++) {
-			details.getEquipment()[i] = new ItemContainer(player.getEquipment()[i], player.getEquipmentN()[i]);
+		
+		if ((sections & SECTION_APPEARANCE) != 0) {
+			details.setGender(player.getGender());
+			details.setAppearance(player.getAppearance().clone());
+			details.setColors(player.getColors().clone());
+		} else {
+			details.setGender(previous.getGender());
+			details.setAppearance(previous.getAppearance());
+			details.setColors(previous.getColors());
 		}
-	
-		mapper.writeValue(new File(directory + player.getUsername() + ".json"), details);
+		
+		if ((sections & SECTION_SETTINGS) != 0) {
+			details.setBrightness(player.getBrightness());
+			details.setMouseButtons(player.mouseButtons());
+			details.setSplitScreen(player.splitScreen());
+			details.setAcceptAid(player.acceptAid());
+			details.setRetaliate(player.retaliate());
+			details.setChatEffects(player.chatEffects());
+			details.setPublicChat(player.getPublicChat());
+			details.setPrivateChat(player.getPrivateChat());
+			details.setTradeCompete(player.getTradeCompete());
+			details.setRunning(player.getMovementHandler().isRunToggled());
+		} else {
+			details.setBrightness(previous.getBrightness());
+			details.setMouseButtons(previous.isMouseButtons());
+			details.setSplitScreen(previous.isSplitScreen());
+			details.setAcceptAid(previous.isAcceptAid());
+			details.setRetaliate(previous.isRetaliate());
+			details.setChatEffects(previous.isChatEffects());
+			details.setPublicChat(previous.getPublicChat());
+			details.setPrivateChat(previous.getPrivateChat());
+			details.setTradeCompete(previous.getTradeCompete());
+			details.setRunning(previous.isRunning());
+		}
+		
+		if ((sections & SECTION_FRIENDS) != 0) {
+			details.setFriends(player.getFriends().clone());
+			details.setIgnores(player.getIgnores().clone());
+		} else {
+			details.setFriends(previous.getFriends());
+			details.setIgnores(previous.getIgnores());
+		}
+		
+		if ((sections & SECTION_SKILLS) != 0) {
+			details.setSkills(new Skill[player.getSkills().length]);
+			for (int i = 0; i < player.getSkills().length; i++) {
+				details.getSkills()[i] = new Skill(player.getSkills()[i], player.getExperience()[i]);
+			}
+		} else {
+			details.setSkills(previous.getSkills());
+		}
+		
+		if ((sections & SECTION_INVENTORY) != 0) {
+			details.setInventory(new ItemContainer[player.getInventory().length]);
+			for (int i = 0; i < player.getInventory().length; i++) {
+				details.getInventory()[i] = new ItemContainer(player.getInventory()[i], player.getInventoryN()[i]);
+			}
+		} else {
+			details.setInventory(previous.getInventory());
+		}
+		
+		if ((sections & SECTION_EQUIPMENT) != 0) {
+			details.setEquipment(new ItemContainer[player.getEquipment().length]);
+			for (int i = 0; i < player.getEquipment().length; i++) {
+				details.getEquipment()[i] = new ItemContainer(player.getEquipment()[i], player.getEquipmentN()[i]);
+			}
+		} else {
+			details.setEquipment(previous.getEquipment());
+		}
+		return details;
 	}
 
 	/**
@@ -95,6 +275,9 @@ public class SaveLoad {
 	 *         invalid username/password
 	 */
 	public static int load(Player player) throws Exception {
+		// Make sure a save queued at the last logout has been written.
+		queue.awaitWritten(player.getUsername());
+
 		File file = new File(directory + player.getUsername() + ".json");
 		if (!file.exists()) {
 			return 1;
@@ -151,6 +334,9 @@ public class SaveLoad {
 			player.getIgnores()[i] = details.getIgnores()[i];
 		}
 		
+		// The setters above marked everything as changed, start clean.
+		player.setSavedSnapshot(snapshot(player));
+		player.setDirtySections(0);
 		return 0;
 	}
 	
@@ -0,0 +1,152 @@
+package server.model.player.storage;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes saved games on a dedicated thread. Snapshots are queued by account,
+ * so an account that is saved again before its previous snapshot was written
+ * is only written once, with the latest snapshot.
+ */
+public class SaveQueue implements Runnable {
+
+	/** The snapshots waiting to be written, by username. */
+	private final Map<String, Details> pending = new LinkedHashMap<String, Details>();
+
+	/** The writer thread. */
+	private final Thread thread;
+
+	/** The username of the account being written, or null. */
+	private String writing;
+
+	/** Whether or not the queue is shutting down. */
+	private boolean shutdown;
+
+	/** The amount of snapshots that replaced a pending one. */
+	private long coalesced;
+
+	/**
+	 * Creates a new SaveQueue and starts its writer thread.
+	 */
+	public SaveQueue() {
+		thread = new Thread(this, "save-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a snapshot to be written.
+	 *
+	 * @param username
+	 *            the username of the account
+	 * @param details
+	 *            the snapshot
+	 */
+	public synchronized void submit(String username, Details details) {
+		if (shutdown) {
+			throw new IllegalStateException("Save queue has been shut down!");
+		}
+		if (pending.remove(username) != null) {
+			coalesced++;
+		}
+		pending.put(username, details);
+		notifyAll();
+	}
+
+	/**
+	 * Blocks until no snapshot of the account is waiting or being written, so
+	 * that the saved game on disk is up to date.
+	 *
+	 * @param username
+	 *            the username of the account
+	 * @throws InterruptedException
+	 */
+	public synchronized void awaitWritten(String username) throws InterruptedException {
+		while (pending.containsKey(username) || username.equals(writing)) {
+			wait();
+		}
+	}
+
+	/**
+	 * Writes every queued snapshot and stops the writer thread.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void shutdown() throws InterruptedException {
+		synchronized (this) {
+			shutdown = true;
+			notifyAll();
+		}
+		thread.join();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			String username;
+			Details details;
+			synchronized (this) {
+				writing = null;
+				notifyAll();
+				while (pending.isEmpty() && !shutdown) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						return;
+					}
+				}
+				if (pending.isEmpty()) {
+					return;
+				}
+				Iterator<Map.Entry<String, Details>> it = pending.entrySet().iterator();
+				Map.Entry<String, Details> next = it.next();
+				it.remove();
+				username = next.getKey();
+				details = next.getValue();
+				writing = username;
+			}
+			try {
+				SaveLoad.write(username, details);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Gets the amount of snapshots waiting to be written.
+	 *
+	 * @return the amount
+	 */
+	public synchronized int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Gets the amount of snapshots that replaced a pending snapshot of the
+	 * same account instead of being written separately.
+	 *
+	 * @return the amount
+	 */
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+
+}
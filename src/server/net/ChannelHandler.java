@@ -16,6 +16,8 @@ package server.net;
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.List;
+
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
@@ -49,14 +51,41 @@ public class ChannelHandler extends SimpleChannelHandler {
 			client = (Client) e.getMessage();
 			PlayerHandler.queueLogin((Player) client);
 		} else if(e.getMessage() instanceof ReceivedPacket) {
-			client.queuePacket((ReceivedPacket)e.getMessage());
+			queuePacket(ctx, (ReceivedPacket) e.getMessage());
+		} else if(e.getMessage() instanceof List) {
+			// All the packets the decoder found in one read.
+			for (Object packet : (List<?>) e.getMessage()) {
+				if (!queuePacket(ctx, (ReceivedPacket) packet)) {
+					break;
+				}
+			}
 		}
 	}
 
+	/**
+	 * Queues a packet for the game thread, or disconnects a client that is
+	 * flooding the server with packets, before they reach the game thread.
+	 * 
+	 * @param ctx
+	 *            the context
+	 * @param packet
+	 *            the packet
+	 * @return true if the packet was queued
+	 */
+	private boolean queuePacket(ChannelHandlerContext ctx, ReceivedPacket packet) {
+		if (client.queuePacket(packet)) {
+			return true;
+		}
+		System.out.println(client + " is flooding packets, disconnecting.");
+		ctx.getChannel().close();
+		return false;
+	}
+
 	@Override
 	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
 		if(client != null) {
-			client.disconnect();
+			// Players may only be unregistered by the game thread.
+			PlayerHandler.queueLogout((Player) client);
 			client = null;
 		}
 	}
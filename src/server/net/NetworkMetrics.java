@@ -0,0 +1,163 @@
+package server.net;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.WriteCompletionEvent;
+
+/**
+ * Counts the channels, bytes and busy time of every network thread. Must be
+ * the first handler of every pipeline, so that it sees the bytes as they are
+ * read and times the whole pipeline. The busy time is the time spent passing
+ * events through the pipeline (decoding and queueing packets); the socket
+ * reads and writes themselves are not included.
+ */
+@org.jboss.netty.channel.ChannelHandler.Sharable
+public class NetworkMetrics implements ChannelUpstreamHandler {
+
+	/**
+	 * The counters of one network thread. The counters are only changed by
+	 * their own thread, but are read by the game thread.
+	 */
+	private static class Worker {
+
+		/** The name of the thread. */
+		private final String name;
+
+		/** The amount of channels connected on the thread. */
+		private final AtomicInteger channels = new AtomicInteger();
+
+		/** The bytes read. */
+		private final AtomicLong bytesRead = new AtomicLong();
+
+		/** The bytes written. */
+		private final AtomicLong bytesWritten = new AtomicLong();
+
+		/** The time spent handling events, in nanoseconds. */
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		/** The depth of pipeline calls, so nested events are timed once. */
+		private int depth;
+
+		/** The busy time at the previous summary. */
+		private long lastBusyNanos;
+
+		/**
+		 * Creates a new Worker.
+		 *
+		 * @param name
+		 *            the name of the thread
+		 */
+		private Worker(String name) {
+			this.name = name;
+		}
+
+	}
+
+	/** Every thread that has handled an event. */
+	private static final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+
+	/** The counters of the current thread. */
+	private static final ThreadLocal<Worker> worker = new ThreadLocal<Worker>() {
+		@Override
+		protected Worker initialValue() {
+			Worker worker = new Worker(Thread.currentThread().getName());
+			workers.add(worker);
+			return worker;
+		}
+	};
+
+	/** The time of the previous summary. */
+	private static long lastSummary = System.nanoTime();
+
+	@Override
+	public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e) throws Exception {
+		Worker worker = NetworkMetrics.worker.get();
+		if (e instanceof MessageEvent) {
+			Object message = ((MessageEvent) e).getMessage();
+			if (message instanceof ChannelBuffer) {
+				worker.bytesRead.addAndGet(((ChannelBuffer) message).readableBytes());
+			}
+		} else if (e instanceof WriteCompletionEvent) {
+			worker.bytesWritten.addAndGet(((WriteCompletionEvent) e).getWrittenAmount());
+		} else if (e instanceof ChannelStateEvent) {
+			ChannelStateEvent event = (ChannelStateEvent) e;
+			if (event.getState() == ChannelState.CONNECTED && event.getValue() != null) {
+				// Accepted channels are connected on the thread that serves them.
+				worker.channels.incrementAndGet();
+				ctx.setAttachment(worker);
+			} else if (event.getState() == ChannelState.OPEN && Boolean.FALSE.equals(event.getValue())) {
+				Worker owner = (Worker) ctx.getAttachment();
+				if (owner != null) {
+					owner.channels.decrementAndGet();
+					ctx.setAttachment(null);
+				}
+			}
+		}
+		if (worker.depth++ > 0) {
+			try {
+				ctx.sendUpstream(e);
+			} finally {
+				worker.depth--;
+			}
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			ctx.sendUpstream(e);
+		} finally {
+			worker.depth--;
+			worker.busyNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Builds a summary of every network thread. The busy percentage is that
+	 * of the time since the previous summary. Must be called on the game
+	 * thread.
+	 *
+	 * @return the summary, or null if no events were handled yet
+	 */
+	public static String summary() {
+		if (workers.isEmpty()) {
+			return null;
+		}
+		long now = System.nanoTime();
+		long elapsed = Math.max(1, now - lastSummary);
+		lastSummary = now;
+		StringBuilder b = new StringBuilder("Network threads (channels, bytes read, bytes written, busy %):");
+		for (Worker worker : workers) {
+			long busy = worker.busyNanos.get();
+			b.append(System.getProperty("line.separator"));
+			b.append(String.format("  %-24s %6d %14d %14d %6.2f", worker.name, worker.channels.get(), worker.bytesRead.get(), worker.bytesWritten.get(), (busy - worker.lastBusyNanos) * 100.0 / elapsed));
+			worker.lastBusyNanos = busy;
+		}
+		return b.toString();
+	}
+
+}
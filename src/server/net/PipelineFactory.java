@@ -30,9 +30,13 @@ import server.net.codecs.LoginDecoder;
 
 public class PipelineFactory implements ChannelPipelineFactory {
 
+	/** Counts the channels, bytes and busy time of the network threads. */
+	private final NetworkMetrics metrics = new NetworkMetrics();
+
 	@Override
 	public ChannelPipeline getPipeline() throws Exception {
 		ChannelPipeline pipeline = new DefaultChannelPipeline();
+		pipeline.addLast("metrics", metrics);
 		pipeline.addLast("encoder", new Encoder());
 		pipeline.addLast("decoder", new LoginDecoder());
 		pipeline.addLast("handler", new ChannelHandler());
@@ -23,16 +23,36 @@ package server.net;
  */
 import org.jboss.netty.buffer.ChannelBuffer;
 
+import server.net.message.Message;
+
 public class ReceivedPacket {
 	
 	private final int opcode;
 	private final int size;
 	private final ChannelBuffer payload;
+	private final Message message;
 	
 	public ReceivedPacket(int opcode, int size, ChannelBuffer payload) {
+		this(opcode, size, payload, null);
+	}
+
+	/**
+	 * Creates a packet that was already decoded into a message.
+	 * 
+	 * @param opcode
+	 *            the opcode
+	 * @param size
+	 *            the size
+	 * @param payload
+	 *            the payload
+	 * @param message
+	 *            the message, or null if the packet was not decoded
+	 */
+	public ReceivedPacket(int opcode, int size, ChannelBuffer payload, Message message) {
 		this.opcode = opcode;
 		this.size = size;
 		this.payload = payload;
+		this.message = message;
 	}
 
 	public int getOpcode() {
@@ -47,4 +67,13 @@ public class ReceivedPacket {
 		return payload;
 	}
 
+	/**
+	 * Gets the message the packet was decoded into on the network thread.
+	 * 
+	 * @return the message, or null if the packet was not decoded
+	 */
+	public Message getMessage() {
+		return message;
+	}
+
 }
@@ -15,13 +15,18 @@ package server.net.codecs;
  * You should have received a copy of the GNU General Public License
  * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
  */
+import java.util.ArrayList;
+import java.util.List;
+
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 
+import server.Constants;
 import server.net.ReceivedPacket;
+import server.net.message.Message;
+import server.net.message.MessageDecoder;
 import server.net.util.ISAACCipher;
 import server.util.Misc;
 
@@ -41,8 +46,40 @@ public class Decoder extends FrameDecoder {
 		this.cipher = cipher;
 	}
 
+	/**
+	 * Decodes every complete packet in the buffer. A single packet is
+	 * returned as a ReceivedPacket, several packets as a List of them, so
+	 * that a burst of packets is passed up the pipeline as one message.
+	 */
 	@Override
 	protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+		ReceivedPacket packet = decodePacket(buffer);
+		if (packet == null) {
+			return null;
+		}
+		ReceivedPacket next = decodePacket(buffer);
+		if (next == null) {
+			return packet;
+		}
+		List<ReceivedPacket> packets = new ArrayList<ReceivedPacket>();
+		packets.add(packet);
+		do {
+			packets.add(next);
+		} while ((next = decodePacket(buffer)) != null);
+		return packets;
+	}
+
+	/**
+	 * Decodes the next packet in the buffer. The payload is a slice of the
+	 * buffer rather than a copy. Netty never writes over bytes it has
+	 * handed to the decoder, so the slice stays valid until the packet is
+	 * handled, but it must not be written to.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @return the packet, or null if it has not been received completely
+	 */
+	private ReceivedPacket decodePacket(ChannelBuffer buffer) {
 		if (opcode == -1) {
 			if (buffer.readableBytes() >= 1) {
 				opcode = buffer.readByte() & 0xFF;
@@ -60,14 +97,18 @@ public class Decoder extends FrameDecoder {
 			}
 		}
 		if (buffer.readableBytes() >= size) {
-			byte[] data = new byte[size];
-			buffer.readBytes(data);
-			
-			ChannelBuffer payload = ChannelBuffers.buffer(size);
-			payload.writeBytes(data);
-			
 			try {
-				return new ReceivedPacket(opcode, size, payload);
+				ChannelBuffer payload = buffer.readSlice(size);
+				Message message = null;
+				if (Constants.NETWORK_THREAD_DECODING) {
+					try {
+						message = MessageDecoder.decode(opcode, size, payload);
+					} catch (Exception ex) {
+						// Leave the broken packet to the game thread.
+						payload.readerIndex(0);
+					}
+				}
+				return new ReceivedPacket(opcode, size, payload, message);
 			} finally {
 				opcode = -1;
 				size = -1;
@@ -154,7 +154,7 @@ public class LoginDecoder extends FrameDecoder {
 	        
 			// Switch the packet decoder to the game decoder
 			channel.getPipeline().remove("decoder");
-			channel.getPipeline().addFirst("decoder", new Decoder(inCipher));
+			channel.getPipeline().addBefore("handler", "decoder", new Decoder(inCipher));
 			
 			Client client = new Player(channel);
 			client.setUsername(name);
@@ -0,0 +1,46 @@
+package server.net.message;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A clicked button (packet 185).
+ */
+public final class ButtonClick implements Message {
+
+	/** The button ID. */
+	private final int buttonId;
+
+	/**
+	 * Creates a new ButtonClick.
+	 * 
+	 * @param buttonId
+	 *            the button ID
+	 */
+	public ButtonClick(int buttonId) {
+		this.buttonId = buttonId;
+	}
+
+	/**
+	 * Gets the button ID.
+	 * 
+	 * @return the button ID
+	 */
+	public int getButtonId() {
+		return buttonId;
+	}
+
+}
@@ -0,0 +1,76 @@
+package server.net.message;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A public chat message (packet 4).
+ */
+public final class ChatMessage implements Message {
+
+	/** The chat effects. */
+	private final int effects;
+
+	/** The chat color. */
+	private final int color;
+
+	/** The encoded text. */
+	private final byte[] text;
+
+	/**
+	 * Creates a new ChatMessage.
+	 * 
+	 * @param effects
+	 *            the chat effects
+	 * @param color
+	 *            the chat color
+	 * @param text
+	 *            the encoded text
+	 */
+	public ChatMessage(int effects, int color, byte[] text) {
+		this.effects = effects;
+		this.color = color;
+		this.text = text;
+	}
+
+	/**
+	 * Gets the chat effects.
+	 * 
+	 * @return the effects
+	 */
+	public int getEffects() {
+		return effects;
+	}
+
+	/**
+	 * Gets the chat color.
+	 * 
+	 * @return the color
+	 */
+	public int getColor() {
+		return color;
+	}
+
+	/**
+	 * Gets the encoded text. The array must not be modified.
+	 * 
+	 * @return the text
+	 */
+	public byte[] getText() {
+		return text;
+	}
+
+}
@@ -0,0 +1,61 @@
+package server.net.message;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A command typed by the player (packet 103).
+ */
+public final class CommandMessage implements Message {
+
+	/** The keyword, in lower case. */
+	private final String keyword;
+
+	/** The arguments. */
+	private final String[] args;
+
+	/**
+	 * Creates a new CommandMessage.
+	 * 
+	 * @param keyword
+	 *            the keyword, in lower case
+	 * @param args
+	 *            the arguments
+	 */
+	public CommandMessage(String keyword, String[] args) {
+		this.keyword = keyword;
+		this.args = args;
+	}
+
+	/**
+	 * Gets the keyword.
+	 * 
+	 * @return the keyword, in lower case
+	 */
+	public String getKeyword() {
+		return keyword;
+	}
+
+	/**
+	 * Gets the arguments. The array must not be modified.
+	 * 
+	 * @return the arguments
+	 */
+	public String[] getArgs() {
+		return args;
+	}
+
+}
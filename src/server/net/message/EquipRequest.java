@@ -0,0 +1,76 @@
+package server.net.message;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A request to equip an inventory item (packet 41).
+ */
+public final class EquipRequest implements Message {
+
+	/** The item ID. */
+	private final int itemId;
+
+	/** The inventory slot. */
+	private final int slot;
+
+	/** The interface ID. */
+	private final int interfaceId;
+
+	/**
+	 * Creates a new EquipRequest.
+	 * 
+	 * @param itemId
+	 *            the item ID
+	 * @param slot
+	 *            the inventory slot
+	 * @param interfaceId
+	 *            the interface ID
+	 */
+	public EquipRequest(int itemId, int slot, int interfaceId) {
+		this.itemId = itemId;
+		this.slot = slot;
+		this.interfaceId = interfaceId;
+	}
+
+	/**
+	 * Gets the item ID.
+	 * 
+	 * @return the item ID
+	 */
+	public int getItemId() {
+		return itemId;
+	}
+
+	/**
+	 * Gets the inventory slot.
+	 * 
+	 * @return the inventory slot
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * Gets the interface ID.
+	 * 
+	 * @return the interface ID
+	 */
+	public int getInterfaceId() {
+		return interfaceId;
+	}
+
+}
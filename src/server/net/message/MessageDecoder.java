@@ -0,0 +1,117 @@
+package server.net.message;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import server.model.Position;
+import server.net.util.StreamBuffer;
+import server.util.Misc;
+
+/**
+ * Decodes the payloads of the packets that have a Message type. With
+ * Constants.NETWORK_THREAD_DECODING, this is done on the network threads as
+ * the packets arrive, otherwise on the game thread as they are handled.
+ */
+public class MessageDecoder {
+
+	/**
+	 * Decodes a packet into a message. Nothing is read from the payload if
+	 * the packet has no message type.
+	 * 
+	 * @param opcode
+	 *            the packet opcode
+	 * @param size
+	 *            the packet size
+	 * @param payload
+	 *            the packet payload
+	 * @return the message, or null if the packet has no message type
+	 */
+	public static Message decode(int opcode, int size, ChannelBuffer payload) {
+		StreamBuffer.InBuffer in;
+		switch (opcode) {
+		case 145: // Remove item.
+			in = StreamBuffer.newInBuffer(payload);
+			int interfaceId = in.readShort(StreamBuffer.ValueType.A);
+			int slot = in.readShort(StreamBuffer.ValueType.A);
+			int itemId = in.readShort(StreamBuffer.ValueType.A);
+			return new UnequipRequest(interfaceId, slot, itemId);
+		case 41: // Equip item.
+			in = StreamBuffer.newInBuffer(payload);
+			itemId = in.readShort();
+			slot = in.readShort(StreamBuffer.ValueType.A);
+			interfaceId = in.readShort();
+			return new EquipRequest(itemId, slot, interfaceId);
+		case 185: // Button clicking.
+			in = StreamBuffer.newInBuffer(payload);
+			return new ButtonClick(Misc.hexToInt(in.readBytes(2)));
+		case 4: // Player chat.
+			in = StreamBuffer.newInBuffer(payload);
+			int effects = in.readByte(false, StreamBuffer.ValueType.S);
+			int color = in.readByte(false, StreamBuffer.ValueType.S);
+			byte[] text = in.readBytesReverse(size - 2, StreamBuffer.ValueType.A);
+			return new ChatMessage(effects, color, text);
+		case 103: // Player command.
+			in = StreamBuffer.newInBuffer(payload);
+			String[] split = in.readString().split(" ");
+			return new CommandMessage(split[0].toLowerCase(), Arrays.copyOfRange(split, 1, split.length));
+		case 248: // Movement.
+		case 164: // ^
+		case 98: // ^
+			return decodeWalkRequest(opcode, size, StreamBuffer.newInBuffer(payload));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes a walk request.
+	 * 
+	 * @param opcode
+	 *            the packet opcode
+	 * @param size
+	 *            the packet size
+	 * @param in
+	 *            the payload
+	 * @return the walk request
+	 */
+	private static WalkRequest decodeWalkRequest(int opcode, int size, StreamBuffer.InBuffer in) {
+		int length = size;
+		if (opcode == 248) {
+			length -= 14;
+		}
+		int steps = (length - 5) / 2;
+		int[][] path = new int[steps][2];
+		int firstStepX = in.readShort(StreamBuffer.ValueType.A, StreamBuffer.ByteOrder.LITTLE);
+		for (int i = 0; i < steps; i++) {
+			path[i][0] = in.readByte();
+			path[i][1] = in.readByte();
+		}
+		int firstStepY = in.readShort(StreamBuffer.ByteOrder.LITTLE);
+		boolean running = in.readByte(StreamBuffer.ValueType.C) == 1;
+
+		Position[] waypoints = new Position[steps + 1];
+		waypoints[0] = new Position(firstStepX, firstStepY);
+		for (int i = 0; i < steps; i++) {
+			waypoints[i + 1] = new Position(path[i][0] + firstStepX, path[i][1] + firstStepY);
+		}
+		return new WalkRequest(waypoints, running);
+	}
+
+}
@@ -0,0 +1,76 @@
+package server.net.message;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A request to remove an item from an interface, such as the equipment (packet 145).
+ */
+public final class UnequipRequest implements Message {
+
+	/** The interface ID. */
+	private final int interfaceId;
+
+	/** The slot. */
+	private final int slot;
+
+	/** The item ID. */
+	private final int itemId;
+
+	/**
+	 * Creates a new UnequipRequest.
+	 * 
+	 * @param interfaceId
+	 *            the interface ID
+	 * @param slot
+	 *            the slot
+	 * @param itemId
+	 *            the item ID
+	 */
+	public UnequipRequest(int interfaceId, int slot, int itemId) {
+		this.interfaceId = interfaceId;
+		this.slot = slot;
+		this.itemId = itemId;
+	}
+
+	/**
+	 * Gets the interface ID.
+	 * 
+	 * @return the interface ID
+	 */
+	public int getInterfaceId() {
+		return interfaceId;
+	}
+
+	/**
+	 * Gets the slot.
+	 * 
+	 * @return the slot
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * Gets the item ID.
+	 * 
+	 * @return the item ID
+	 */
+	public int getItemId() {
+		return itemId;
+	}
+
+}
@@ -0,0 +1,74 @@
+package server.net.message;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.Position;
+
+/**
+ * A request to walk or run along a path (packets 248, 164 and 98).
+ */
+public final class WalkRequest implements Message {
+
+	/** The waypoints of the path, the first step included. */
+	private final Position[] waypoints;
+
+	/** Whether or not the path is run. */
+	private final boolean running;
+
+	/**
+	 * Creates a new WalkRequest.
+	 * 
+	 * @param waypoints
+	 *            the waypoints of the path, the first step included
+	 * @param running
+	 *            whether or not the path is run
+	 */
+	public WalkRequest(Position[] waypoints, boolean running) {
+		this.waypoints = waypoints;
+		this.running = running;
+	}
+
+	/**
+	 * Gets the amount of waypoints.
+	 * 
+	 * @return the amount
+	 */
+	public int getWaypointCount() {
+		return waypoints.length;
+	}
+
+	/**
+	 * Gets a waypoint. The waypoint must not be modified.
+	 * 
+	 * @param index
+	 *            the index of the waypoint
+	 * @return the waypoint
+	 */
+	public Position getWaypoint(int index) {
+		return waypoints[index];
+	}
+
+	/**
+	 * Gets whether or not the path is run.
+	 * 
+	 * @return true if the path is run
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+}
@@ -0,0 +1,91 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.Player;
+import server.net.message.ButtonClick;
+
+/**
+ * Handles the clicked buttons.
+ */
+public class ButtonPacketHandler extends MessageHandler<ButtonClick> {
+
+	@Override
+	public void handleMessage(Player player, ButtonClick message) {
+		switch (message.getButtonId()) {
+		case 9154:
+			player.sendLogout();
+			break;
+		case 153:
+			player.getMovementHandler().setRunToggled(true);
+			break;
+		case 152:
+			player.getMovementHandler().setRunToggled(false);
+			break;
+		case 5451:
+		case 5452:
+			player.setBrightness((byte) 0);
+			break;
+		case 6273:
+		case 6157:
+			player.setBrightness((byte) 1);
+			break;
+		case 6275:
+		case 6274:
+			player.setBrightness((byte) 2);
+			break;
+		case 6277:
+		case 6276:
+			player.setBrightness((byte) 3);
+			break;
+		case 6279:
+			player.setMouseButtons(true);
+			break;
+		case 6278:
+			player.setMouseButtons(false);
+			break;
+		case 6280:
+			player.setChatEffects(true);
+			break;
+		case 6281:
+			player.setChatEffects(false);
+			break;
+		case 952:
+			player.setSplitScreen(true);
+			break;
+		case 953:
+			player.setSplitScreen(false);
+			break;
+		case 12591:
+			player.setAcceptAid(true);
+			break;
+		case 12590:
+			player.setAcceptAid(false);
+			break;
+		case 150:
+			player.setRetaliate(true);
+			break;
+		case 151:
+			player.setRetaliate(false);
+			break;
+		default:
+			System.out.println("Unhandled button: " + message.getButtonId());
+			break;
+		}
+	}
+
+}
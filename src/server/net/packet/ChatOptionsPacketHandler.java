@@ -0,0 +1,46 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.Player;
+import server.net.ReceivedPacket;
+import server.net.util.StreamBuffer;
+
+/**
+ * Changes the public chat, private chat and trade settings of the player.
+ */
+public class ChatOptionsPacketHandler implements PacketHandler {
+
+	@Override
+	public void handle(Player player, ReceivedPacket packet) {
+		StreamBuffer.InBuffer in = StreamBuffer.newInBuffer(packet.getPayload());
+		byte status = (byte) in.readByte();
+		if (status >= 0 && status <= 3) {
+			player.setPublicChat(status);
+		}
+		status = (byte) in.readByte();
+		if (status >= 0 && status <= 3) {
+			player.setPrivateChat(status);
+			player.updateOtherFriends(player.getPrivateChat());
+		}
+		status = (byte) in.readByte();
+		if (status >= 0 && status <= 3) {
+			player.setTradeCompete(status);
+		}
+	}
+
+}
@@ -0,0 +1,111 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.Constants;
+import server.model.player.Player;
+import server.model.player.PlayerHandler;
+import server.model.player.storage.SaveLoad;
+import server.net.ReceivedPacket;
+import server.net.util.StreamBuffer;
+import server.util.Misc;
+
+/**
+ * Handles the friends and ignore lists, and private messages.
+ */
+public class FriendsPacketHandler implements PacketHandler {
+
+	@Override
+	public void handle(Player player, ReceivedPacket packet) {
+		StreamBuffer.InBuffer in = StreamBuffer.newInBuffer(packet.getPayload());
+		switch (packet.getOpcode()) {
+		case 188: // Add friend
+			long friend = in.readLong();
+			for(int i = 0; i < player.getFriends().length; i++) {
+				if(player.getFriends()[i] == 0) {
+					player.getFriends()[i] = friend;
+					break;
+				}
+			}
+			player.markDirty(SaveLoad.SECTION_FRIENDS);
+			Player plr = PlayerHandler.getPlayerByName(Misc.longToName(friend));
+			byte world = 0;
+			if(plr != null) {
+				if(plr.getPrivateChat() == 0) {
+					world = Constants.WORLD;
+				} else if(plr.getPrivateChat() == 1) {
+					if(plr.hasFriend(Misc.nameToLong(player.getUsername()))) {
+						world = Constants.WORLD;
+					}
+				}
+				if(player.getPrivateChat() == 1 && plr.hasFriend(Misc.nameToLong(player.getUsername()))) {
+					plr.sendFriendUpdate(Misc.nameToLong(player.getUsername()), Constants.WORLD);
+				}
+			}
+			player.sendFriendUpdate(friend, world);
+			break;
+		case 215: // Remove friend
+			friend = in.readLong();
+			for(int i = 0; i < player.getFriends().length; i++) {
+				if(player.getFriends()[i] == friend) {
+					player.getFriends()[i] = 0;
+					break;
+				}
+			}
+			player.markDirty(SaveLoad.SECTION_FRIENDS);
+			if(player.getPrivateChat() == 1) {
+				plr = PlayerHandler.getPlayerByName(Misc.longToName(friend));
+				if(plr != null) {
+					plr.sendFriendUpdate(Misc.nameToLong(player.getUsername()), (byte)0);
+				}
+			}
+			break;
+		case 126: // Send pm
+			friend = in.readLong();
+			plr = PlayerHandler.getPlayerByName(Misc.longToName(friend));
+			if(plr == null) {
+				player.sendMessage("That is currently offline.");
+				break;
+			}
+			int size = packet.getSize() - 8;
+			byte[] message = in.readBytes(size);
+			plr.sendPrivateMessage(Misc.nameToLong(player.getUsername()), (byte) player.getStaffRights(), message);
+			break;
+		case 74: // Remove ignore
+			long ignore = in.readLong();
+			for(int i = 0; i < player.getIgnores().length; i++) {
+				if(player.getIgnores()[i] == ignore) {
+					player.getIgnores()[i] = 0;
+					break;
+				}
+			}
+			player.markDirty(SaveLoad.SECTION_FRIENDS);
+			break;
+		case 133: // Add ignore
+			ignore = in.readLong();
+			for(int i = 0; i < player.getIgnores().length; i++) {
+				if(player.getIgnores()[i] == 0) {
+					player.getIgnores()[i] = ignore;
+					break;
+				}
+			}
+			player.markDirty(SaveLoad.SECTION_FRIENDS);
+			break;
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.Player;
+import server.net.ReceivedPacket;
+import server.net.message.Message;
+import server.net.message.MessageDecoder;
+
+/**
+ * Handles the packets of a message type. The message is taken from the packet
+ * if it was decoded on a network thread, or decoded here otherwise.
+ */
+public abstract class MessageHandler<M extends Message> implements PacketHandler {
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public final void handle(Player player, ReceivedPacket packet) throws Exception {
+		Message message = packet.getMessage();
+		if (message == null) {
+			message = MessageDecoder.decode(packet.getOpcode(), packet.getSize(), packet.getPayload());
+		}
+		handleMessage(player, (M) message);
+	}
+
+	/**
+	 * Handles a message.
+	 * 
+	 * @param player
+	 *            the player that sent the message
+	 * @param message
+	 *            the message
+	 * @throws Exception
+	 */
+	public abstract void handleMessage(Player player, M message) throws Exception;
+
+}
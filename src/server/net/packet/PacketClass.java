@@ -0,0 +1,95 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.Constants;
+
+/**
+ * The classes of packets that are limited separately per cycle, on top of
+ * the limit on all packets of a client per cycle.
+ */
+public enum PacketClass {
+
+	/**
+	 * Walking and running, only limited by the limit on all packets. Walk
+	 * requests that follow each other are combined into the latest one.
+	 */
+	MOVEMENT(Integer.MAX_VALUE, 248, 164, 98),
+
+	/** Public chat, commands and private messages. */
+	CHAT(Constants.CHAT_PACKETS_PER_CYCLE, 4, 103, 126),
+
+	/** Buttons, and equipping and removing items. */
+	INTERFACE(Constants.INTERFACE_PACKETS_PER_CYCLE, 185, 41, 145),
+
+	/** Everything else, only limited by the limit on all packets. */
+	OTHER(Integer.MAX_VALUE);
+
+	/** The classes, by opcode. */
+	private static final PacketClass[] classes = new PacketClass[256];
+
+	static {
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = OTHER;
+		}
+		for (PacketClass type : values()) {
+			for (int opcode : type.opcodes) {
+				classes[opcode] = type;
+			}
+		}
+	}
+
+	/** The maximum amount of packets of this class handled per cycle. */
+	private final int budget;
+
+	/** The opcodes of the packets of this class. */
+	private final int[] opcodes;
+
+	/**
+	 * Creates a new PacketClass.
+	 * 
+	 * @param budget
+	 *            the maximum amount of packets handled per cycle
+	 * @param opcodes
+	 *            the opcodes
+	 */
+	private PacketClass(int budget, int... opcodes) {
+		this.budget = budget;
+		this.opcodes = opcodes;
+	}
+
+	/**
+	 * Gets the maximum amount of packets of this class handled per cycle.
+	 * 
+	 * @return the budget
+	 */
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Gets the class of a packet.
+	 * 
+	 * @param opcode
+	 *            the opcode of the packet
+	 * @return the class
+	 */
+	public static PacketClass forOpcode(int opcode) {
+		return classes[opcode];
+	}
+
+}
@@ -0,0 +1,152 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import server.model.player.Player;
+import server.net.ReceivedPacket;
+
+/**
+ * Dispatches the received packets to the handlers registered for their
+ * opcodes. The amount of packets, their bytes and the time spent handling
+ * them are counted per opcode until the next summary, to show which packets
+ * cost the game thread the most.
+ */
+public class PacketDispatcher {
+
+	/** The handlers, by opcode. */
+	private static final PacketHandler[] handlers = new PacketHandler[256];
+
+	/** The amount of packets received, by opcode. */
+	private static final long[] counts = new long[256];
+
+	/** The payload bytes received, by opcode. */
+	private static final long[] bytes = new long[256];
+
+	/** The time spent handling packets in nanoseconds, by opcode. */
+	private static final long[] nanos = new long[256];
+
+	/** Whether or not an unhandled packet has been printed, by opcode. */
+	private static final boolean[] reported = new boolean[256];
+
+	/** Handles the packets the server has no use for, by doing nothing. */
+	private static final PacketHandler IGNORED = new PacketHandler() {
+		@Override
+		public void handle(Player player, ReceivedPacket packet) {
+		}
+	};
+
+	static {
+		register(new UnequipPacketHandler(), 145);
+		register(new EquipPacketHandler(), 41);
+		register(new ButtonPacketHandler(), 185);
+		register(new ChatPacketHandler(), 4);
+		register(new CommandPacketHandler(), 103);
+		register(new WalkPacketHandler(), 248, 164, 98);
+		register(new ChatOptionsPacketHandler(), 95);
+		register(new FriendsPacketHandler(), 188, 215, 126, 74, 133);
+		register(IGNORED, 0, 3, 202, 77, 86, 78, 36, 226, 246, 148, 183, 230, 136, 189, 152, 200, 85, 165, 238, 150);
+	}
+
+	/**
+	 * Registers a handler for one or more opcodes.
+	 * 
+	 * @param handler
+	 *            the handler
+	 * @param opcodes
+	 *            the opcodes
+	 */
+	public static void register(PacketHandler handler, int... opcodes) {
+		for (int opcode : opcodes) {
+			if (handlers[opcode] != null) {
+				throw new IllegalStateException("Opcode " + opcode + " already has a handler!");
+			}
+			handlers[opcode] = handler;
+		}
+	}
+
+	/**
+	 * Handles a packet. Must be called on the game thread.
+	 * 
+	 * @param player
+	 *            the player that sent the packet
+	 * @param packet
+	 *            the packet
+	 * @throws Exception
+	 */
+	public static void handle(Player player, ReceivedPacket packet) throws Exception {
+		int opcode = packet.getOpcode();
+		counts[opcode]++;
+		bytes[opcode] += packet.getSize();
+		PacketHandler handler = handlers[opcode];
+		if (handler == null) {
+			if (!reported[opcode]) {
+				// Only the first one is printed, the rest are counted.
+				reported[opcode] = true;
+				System.out.println(player + " unhandled packet received " + opcode + " - " + packet.getSize());
+			}
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			handler.handle(player, packet);
+		} finally {
+			nanos[opcode] += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Builds a summary of the opcodes that took the most time to handle since
+	 * the previous summary, and starts counting anew. Unhandled opcodes are
+	 * marked with a question mark.
+	 * 
+	 * @param max
+	 *            the maximum amount of opcodes in the summary
+	 * @return the summary, or null if no packets were received
+	 */
+	public static String summary(int max) {
+		Integer[] opcodes = new Integer[256];
+		int amount = 0;
+		for (int i = 0; i < 256; i++) {
+			if (counts[i] > 0) {
+				opcodes[amount++] = i;
+			}
+		}
+		if (amount == 0) {
+			return null;
+		}
+		Arrays.sort(opcodes, 0, amount, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.valueOf(nanos[b]).compareTo(nanos[a]);
+			}
+		});
+		StringBuilder b = new StringBuilder("Packets by handling time (opcode, count, bytes, total ms, avg us):");
+		for (int i = 0; i < Math.min(max, amount); i++) {
+			int opcode = opcodes[i];
+			b.append(System.getProperty("line.separator"));
+			b.append(String.format("  %3d%s %10d %12d %10.2f %8.2f", opcode, handlers[opcode] == null ? "?" : " ", counts[opcode], bytes[opcode], nanos[opcode] / 1000000.0, nanos[opcode] / 1000.0 / counts[opcode]));
+		}
+		Arrays.fill(counts, 0);
+		Arrays.fill(bytes, 0);
+		Arrays.fill(nanos, 0);
+		return b.toString();
+	}
+
+}
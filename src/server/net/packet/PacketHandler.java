@@ -0,0 +1,39 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.Player;
+import server.net.ReceivedPacket;
+
+/**
+ * Handles the packets with one or more opcodes. Handlers are registered with
+ * the PacketDispatcher, and are called on the game thread.
+ */
+public interface PacketHandler {
+
+	/**
+	 * Handles a packet.
+	 * 
+	 * @param player
+	 *            the player that sent the packet
+	 * @param packet
+	 *            the packet
+	 * @throws Exception
+	 */
+	public void handle(Player player, ReceivedPacket packet) throws Exception;
+
+}
@@ -0,0 +1,34 @@
+package server.net.packet;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import server.model.player.Player;
+import server.net.message.UnequipRequest;
+
+/**
+ * Removes an equipped item.
+ */
+public class UnequipPacketHandler extends MessageHandler<UnequipRequest> {
+
+	@Override
+	public void handleMessage(Player player, UnequipRequest message) {
+		if (message.getInterfaceId() == 1688) {
+			player.unequip(message.getSlot());
+		}
+	}
+
+}
@@ -70,9 +70,6 @@ public abstract class StreamBuffer {
 	/** The current AccessType of the buffer. */
 	private AccessType accessType = AccessType.BYTE_ACCESS;
 
-	/** The current bit position. */
-	private int bitPosition = 0;
-
 	/**
 	 * Creates a new InBuffer.
 	 * 
@@ -95,6 +92,24 @@ public abstract class StreamBuffer {
 		return new OutBuffer(size);
 	}
 
+	/**
+	 * Creates a per-thread scratch OutBuffer. Building a packet in a scratch
+	 * buffer (after calling reset() on it) and sending a copy of the result
+	 * saves allocating a large buffer for every packet.
+	 * 
+	 * @param size
+	 *            the initial size of each thread's buffer
+	 * @return the per-thread buffer
+	 */
+	public static final ThreadLocal<OutBuffer> newScratchBuffer(final int size) {
+		return new ThreadLocal<OutBuffer>() {
+			@Override
+			protected OutBuffer initialValue() {
+				return new OutBuffer(size);
+			}
+		};
+	}
+
 	/**
 	 * Handles the internal switching of the access type.
 	 * 
@@ -123,25 +138,6 @@ public abstract class StreamBuffer {
 		return accessType;
 	}
 
-	/**
-	 * Sets the bit position.
-	 * 
-	 * @param bitPosition
-	 *            the new bit position
-	 */
-	public void setBitPosition(int bitPosition) {
-		this.bitPosition = bitPosition;
-	}
-
-	/**
-	 * Gets the current bit position.
-	 * 
-	 * @return the bit position
-	 */
-	public int getBitPosition() {
-		return bitPosition;
-	}
-
 	/**
 	 * A StreamBuffer used to read incoming data.
 	 * 
@@ -634,6 +630,18 @@ public abstract class StreamBuffer {
 		/** The position of the packet length in the packet header. */
 		private int lengthPosition = 0;
 
+		/**
+		 * The bits written but not yet stored in the buffer, in the lowest
+		 * bitCount bits.
+		 */
+		private long bitBuffer;
+
+		/** The amount of bits in the bit buffer. */
+		private int bitCount;
+
+		/** The index at which the bit buffer is stored next. */
+		private int bitIndex;
+
 		/**
 		 * Creates a new OutBuffer.
 		 * 
@@ -648,14 +656,36 @@ public abstract class StreamBuffer {
 		void switchAccessType(AccessType type) {
 			switch (type) {
 			case BIT_ACCESS:
-				setBitPosition(buffer.writerIndex() * 8);
+				bitBuffer = 0;
+				bitCount = 0;
+				bitIndex = buffer.writerIndex();
 				break;
 			case BYTE_ACCESS:
-				buffer.writerIndex((getBitPosition() + 7) / 8);
+				// Store the remaining bits, padding the last byte with zeros.
+				int bytes = (bitCount + 7) >> 3;
+				if (bitIndex + bytes > buffer.capacity()) {
+					ensureCapacity(bytes);
+				}
+				long bits = bitBuffer << ((bytes << 3) - bitCount);
+				for (int i = bytes - 1; i >= 0; i--) {
+					buffer.setByte(bitIndex++, (int) (bits >>> (i << 3)));
+				}
+				bitCount = 0;
+				buffer.writerIndex(bitIndex);
 				break;
 			}
 		}
 
+		/**
+		 * Gets the current bit position. Bits are only written in order, so
+		 * the position can not be set.
+		 * 
+		 * @return the bit position
+		 */
+		public int getBitPosition() {
+			return (bitIndex << 3) + bitCount;
+		}
+
 		/**
 		 * Writes a packet header.
 		 * 
@@ -726,9 +756,25 @@ public abstract class StreamBuffer {
 		 * @param from
 		 */
 		public void writeBytes(ChannelBuffer from) {
-			for(int i = 0; i < from.writerIndex(); i++) {
-				writeByte(from.getByte(i));
+			if (getAccessType() != AccessType.BYTE_ACCESS) {
+				throw new IllegalStateException("Illegal access type.");
 			}
+			ensureCapacity(from.writerIndex());
+			buffer.writeBytes(from, 0, from.writerIndex());
+		}
+
+		/**
+		 * Writes the bytes from the argued byte array into this buffer.
+		 * 
+		 * @param data
+		 *            the data to write
+		 */
+		public void writeBytes(byte[] data) {
+			if (getAccessType() != AccessType.BYTE_ACCESS) {
+				throw new IllegalStateException("Illegal access type.");
+			}
+			ensureCapacity(data.length);
+			buffer.writeBytes(data);
 		}
 
 		/**
@@ -739,16 +785,44 @@ public abstract class StreamBuffer {
 		 *            the data to write
 		 */
 		public void writeBytesReverse(byte[] data) {
+			if (getAccessType() != AccessType.BYTE_ACCESS) {
+				throw new IllegalStateException("Illegal access type.");
+			}
+			ensureCapacity(data.length);
+			int index = buffer.writerIndex();
 			for (int i = data.length - 1; i >= 0; i--) {
-				writeByte(data[i]);
+				buffer.setByte(index++, data[i]);
 			}
+			buffer.writerIndex(index);
 		}
 
 		/**
-		 * Writes the value as a variable amount of bits.
+		 * Makes sure the buffer has room for an amount of bytes after the
+		 * current write position, growing it if need be. Reserve the most
+		 * bytes a packet can take before writing its bits, so that they never
+		 * have to wait for the buffer to grow.
 		 * 
 		 * @param amount
-		 *            the amount of bits
+		 *            the amount of bytes
+		 */
+		public void ensureCapacity(int amount) {
+			int position = Math.max(buffer.writerIndex(), bitIndex);
+			if (position + amount <= buffer.capacity()) {
+				return;
+			}
+			// Copy everything, bits are stored past writerIndex.
+			ChannelBuffer old = buffer;
+			buffer = ChannelBuffers.buffer(Math.max(old.capacity() * 2, position + amount));
+			buffer.setBytes(0, old, 0, old.capacity());
+			buffer.writerIndex(old.writerIndex());
+		}
+
+		/**
+		 * Writes the value as a variable amount of bits. The bits are gathered
+		 * in a 64 bit buffer, which is stored 32 bits at a time.
+		 * 
+		 * @param amount
+		 *            the amount of bits, between 0 and 32
 		 * @param value
 		 *            the value
 		 */
@@ -756,39 +830,15 @@ public abstract class StreamBuffer {
 			if (getAccessType() != AccessType.BIT_ACCESS) {
 				throw new IllegalStateException("Illegal access type.");
 			}
-			if (amount < 0 || amount > 32) {
-				throw new IllegalArgumentException("Number of bits must be between 1 and 32 inclusive.");
-			}
-
-			int bytePos = getBitPosition() >> 3;
-			int bitOffset = 8 - (getBitPosition() & 7);
-			setBitPosition(getBitPosition() + amount);
-
-			// Re-size the buffer if need be.
-			int requiredSpace = bytePos - buffer.writerIndex() + 1;
-			requiredSpace += (amount + 7) / 8;
-			if (buffer.writableBytes() < requiredSpace) {
-				ChannelBuffer old = buffer;
-				buffer = ChannelBuffers.buffer(old.capacity() + requiredSpace);
-				buffer.writeBytes(old);
-			}
-			for (; amount > bitOffset; bitOffset = 8) {
-				byte tmp = buffer.getByte(bytePos);
-				tmp &= ~BIT_MASK[bitOffset];
-				tmp |= (value >> (amount - bitOffset)) & BIT_MASK[bitOffset];
-				buffer.setByte(bytePos++, tmp);
-				amount -= bitOffset;
-			}
-			if (amount == bitOffset) {
-				byte tmp = buffer.getByte(bytePos);
-				tmp &= ~BIT_MASK[bitOffset];
-				tmp |= value & BIT_MASK[bitOffset];
-				buffer.setByte(bytePos, tmp);
-			} else {
-				byte tmp = buffer.getByte(bytePos);
-				tmp &= ~(BIT_MASK[amount] << (bitOffset - amount));
-				tmp |= (value & BIT_MASK[amount]) << (bitOffset - amount);
-				buffer.setByte(bytePos, tmp);
+			bitBuffer = (bitBuffer << amount) | ((value & BIT_MASK[amount]) & 0xffffffffL);
+			bitCount += amount;
+			if (bitCount >= 32) {
+				bitCount -= 32;
+				if (bitIndex + 4 > buffer.capacity()) {
+					ensureCapacity(4);
+				}
+				buffer.setInt(bitIndex, (int) (bitBuffer >>> bitCount));
+				bitIndex += 4;
 			}
 		}
 
@@ -827,6 +877,9 @@ public abstract class StreamBuffer {
 			default:
 				break;
 			}
+			if (!buffer.writable()) {
+				ensureCapacity(1);
+			}
 			buffer.writeByte((byte) value);
 		}
 
@@ -1069,6 +1122,48 @@ public abstract class StreamBuffer {
 			return buffer;
 		}
 
+		/**
+		 * Empties the buffer so it can be reused.
+		 */
+		public void reset() {
+			if (getAccessType() == AccessType.BIT_ACCESS) {
+				setAccessType(AccessType.BYTE_ACCESS);
+			}
+			buffer.clear();
+			lengthPosition = 0;
+		}
+
+		/**
+		 * Finishes a variable short packet whose last part was built in
+		 * another buffer, then copies both parts into a new buffer of exactly
+		 * their combined size. This saves appending the other buffer to this
+		 * one and then copying the whole packet again.
+		 * 
+		 * @param tail
+		 *            the buffer holding the end of the packet
+		 * @return the finished packet
+		 */
+		public ChannelBuffer finishVariableShortPacket(OutBuffer tail) {
+			int length = buffer.writerIndex();
+			int tailLength = tail.buffer.writerIndex();
+			buffer.setShort(lengthPosition, (short) (length + tailLength - lengthPosition - 2));
+			ChannelBuffer packet = ChannelBuffers.buffer(length + tailLength);
+			packet.writeBytes(buffer, 0, length);
+			packet.writeBytes(tail.buffer, 0, tailLength);
+			return packet;
+		}
+
+		/**
+		 * Copies the written bytes into an array.
+		 * 
+		 * @return the bytes
+		 */
+		public byte[] toByteArray() {
+			byte[] data = new byte[buffer.writerIndex()];
+			buffer.getBytes(0, data);
+			return data;
+		}
+
 	}
 
 }
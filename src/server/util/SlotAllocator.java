@@ -0,0 +1,140 @@
+package server.util;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.BitSet;
+
+/**
+ * Hands out the lowest free slot between 1 (inclusive) and the capacity
+ * (exclusive). Used slots are kept in a bit set, and the search for a free
+ * slot starts at the lowest slot that may be free, so allocating a burst of
+ * slots costs O(1) per slot.
+ * <p>
+ * With delayed reuse, released slots stay in use until they have been sealed
+ * by sealPending() and then released by releasePending(), so that a slot is
+ * not handed to another entity before every client has been told that the
+ * old one is gone. Sealing right before the clients are updated and
+ * releasing right after means a slot freed during or after the update waits
+ * for the next one.
+ */
+public class SlotAllocator {
+
+	/** The used slots. */
+	private final BitSet used;
+
+	/** The capacity. */
+	private final int capacity;
+
+	/** Whether or not the reuse of released slots is delayed. */
+	private final boolean delayedReuse;
+
+	/** The slots waiting to be released. */
+	private int[] pending = new int[16];
+
+	/** The amount of slots waiting to be released. */
+	private int pendingAmount;
+
+	/** The amount of pending slots, from the start, that have been sealed. */
+	private int sealedAmount;
+
+	/** No slot below this one is free. */
+	private int lowestFree = 1;
+
+	/**
+	 * Creates a new SlotAllocator.
+	 *
+	 * @param capacity
+	 *            the capacity
+	 * @param delayedReuse
+	 *            whether or not the reuse of released slots is delayed until
+	 *            releasePending() is called
+	 */
+	public SlotAllocator(int capacity, boolean delayedReuse) {
+		this.used = new BitSet(capacity);
+		this.capacity = capacity;
+		this.delayedReuse = delayedReuse;
+	}
+
+	/**
+	 * Allocates the lowest free slot.
+	 *
+	 * @return the slot, or -1 if there are no free slots
+	 */
+	public int allocate() {
+		int slot = used.nextClearBit(lowestFree);
+		if (slot >= capacity) {
+			return -1;
+		}
+		used.set(slot);
+		lowestFree = slot + 1;
+		return slot;
+	}
+
+	/**
+	 * Releases a slot.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	public void release(int slot) {
+		if (delayedReuse) {
+			if (pendingAmount == pending.length) {
+				int[] old = pending;
+				pending = new int[old.length * 2];
+				System.arraycopy(old, 0, pending, 0, old.length);
+			}
+			pending[pendingAmount++] = slot;
+		} else {
+			free(slot);
+		}
+	}
+
+	/**
+	 * Seals the slots released so far, so that the next call to
+	 * releasePending() releases them.
+	 */
+	public void sealPending() {
+		sealedAmount = pendingAmount;
+	}
+
+	/**
+	 * Releases the slots whose reuse was delayed and that have been sealed.
+	 * Slots released after the last call to sealPending() stay pending.
+	 */
+	public void releasePending() {
+		for (int i = 0; i < sealedAmount; i++) {
+			free(pending[i]);
+		}
+		pendingAmount -= sealedAmount;
+		System.arraycopy(pending, sealedAmount, pending, 0, pendingAmount);
+		sealedAmount = 0;
+	}
+
+	/**
+	 * Marks a slot as free.
+	 *
+	 * @param slot
+	 *            the slot
+	 */
+	private void free(int slot) {
+		used.clear(slot);
+		if (slot < lowestFree) {
+			lowestFree = slot;
+		}
+	}
+
+}
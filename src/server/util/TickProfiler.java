@@ -0,0 +1,183 @@
+package server.util;
+/*
+ * This file is part of RuneSource.
+ *
+ * RuneSource is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * RuneSource is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with RuneSource.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Times every phase of a server cycle. The samples of a number of cycles are
+ * kept per phase, and a summary with the median, 99th percentile and maximum
+ * of every phase is printed once that number of cycles has been recorded.
+ */
+public class TickProfiler {
+
+	/**
+	 * An enum whose values represent the phases of a server cycle, in the
+	 * order they are performed.
+	 */
+	public static enum Phase {
+		TASKS, LOGINS, PACKETS, PLAYER_LOGIC, NPC_LOGIC, UPDATE, FLUSH, RESET, AUTOSAVE, TOTAL
+	}
+
+	/** The amount of cycles per summary. */
+	private final int interval;
+
+	/** The phase times of the current interval, in nanoseconds. */
+	private final long[][] times;
+
+	/** The entities processed per phase during the current interval. */
+	private final long[] entities = new long[Phase.values().length];
+
+	/** A scratch array used for sorting the samples of a phase. */
+	private final long[] sorted;
+
+	/** The amount of cycles recorded in the current interval. */
+	private int cycles;
+
+	/** The time at which the current cycle started. */
+	private long cycleStart;
+
+	/** The time at which the last phase ended. */
+	private long mark;
+
+	/** Whether or not summaries are printed. */
+	private boolean printing = true;
+
+	/**
+	 * Creates a new TickProfiler.
+	 *
+	 * @param interval
+	 *            the amount of cycles per summary
+	 */
+	public TickProfiler(int interval) {
+		this.interval = interval;
+		this.times = new long[Phase.values().length][interval];
+		this.sorted = new long[interval];
+	}
+
+	/**
+	 * Starts timing a cycle.
+	 */
+	public void startCycle() {
+		cycleStart = System.nanoTime();
+		mark = cycleStart;
+	}
+
+	/**
+	 * Ends the current phase, which started when the previous phase ended.
+	 *
+	 * @param phase
+	 *            the phase
+	 * @param processed
+	 *            the amount of entities processed in the phase
+	 */
+	public void mark(Phase phase, int processed) {
+		long now = System.nanoTime();
+		times[phase.ordinal()][cycles] = now - mark;
+		entities[phase.ordinal()] += processed;
+		mark = now;
+	}
+
+	/**
+	 * Ends timing the current cycle, printing a summary if the interval is
+	 * complete.
+	 */
+	public void endCycle() {
+		times[Phase.TOTAL.ordinal()][cycles] = System.nanoTime() - cycleStart;
+		if (++cycles == interval) {
+			if (printing) {
+				System.out.println(summary());
+			}
+			reset();
+		}
+	}
+
+	/**
+	 * Builds a summary of the current interval.
+	 *
+	 * @return the summary
+	 */
+	public String summary() {
+		StringBuilder b = new StringBuilder("Tick profile of " + cycles + " cycles (p50/p99/max ms, avg entities):");
+		for (Phase phase : Phase.values()) {
+			b.append(System.getProperty("line.separator"));
+			b.append(String.format("  %-12s %7.2f %7.2f %7.2f", phase, millis(percentile(phase, 50)), millis(percentile(phase, 99)), millis(percentile(phase, 100))));
+			if (phase != Phase.TOTAL) {
+				b.append(String.format(" %6d", cycles == 0 ? 0 : entities[phase.ordinal()] / cycles));
+			}
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Gets a percentile of the phase times recorded in the current interval.
+	 *
+	 * @param phase
+	 *            the phase
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the phase time, in nanoseconds
+	 */
+	public long percentile(Phase phase, int percentile) {
+		if (cycles == 0) {
+			return 0;
+		}
+		System.arraycopy(times[phase.ordinal()], 0, sorted, 0, cycles);
+		Arrays.sort(sorted, 0, cycles);
+		int index = (int) Math.ceil(percentile / 100.0 * cycles) - 1;
+		return sorted[Math.max(0, Math.min(cycles - 1, index))];
+	}
+
+	/**
+	 * Clears the samples of the current interval.
+	 */
+	public void reset() {
+		cycles = 0;
+		Arrays.fill(entities, 0);
+	}
+
+	/**
+	 * Sets whether or not summaries are printed when an interval completes.
+	 *
+	 * @param printing
+	 *            the flag
+	 */
+	public void setPrinting(boolean printing) {
+		this.printing = printing;
+	}
+
+	/**
+	 * Gets the amount of cycles recorded in the current interval.
+	 *
+	 * @return the amount of cycles
+	 */
+	public int getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds.
+	 *
+	 * @param nanos
+	 *            the nanoseconds
+	 * @return the milliseconds
+	 */
+	private static double millis(long nanos) {
+		return nanos / 1000000.0;
+	}
+
+}